@@ -3,33 +3,437 @@ package com.example.cropanalysissdk
 
 import android.content.Context
 import android.graphics.Bitmap
-import android.os.SystemClock
-import android.util.Log
+import android.net.Uri
+import android.os.ParcelFileDescriptor
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.buffer
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.isActive
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.Callable
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.FutureTask
+import java.util.concurrent.TimeUnit
 
-class CropSDK(context: Context) {
+class CropSDK private constructor(
+    context: Context,
+    private val engine: ModelEngine,
+    private val ownsEngine: Boolean,
+    private val options: AnalysisOptions
+) : Closeable {
 
-    private val engine = ModelEngine(context)
-    private val TAG = "CropSDK"
+    @JvmOverloads
+    constructor(
+        context: Context,
+        config: EngineConfig = EngineConfig(),
+        options: AnalysisOptions = AnalysisOptions()
+    ) : this(context, ModelEngine(context, config), true, options)
 
-    // CONFIG (Matching Python)
-    private val CONF_THRESH = 0.65f
-    private val VOTE_THRESH = 3
+    /**
+     * Runs on an engine owned elsewhere, typically [SharedModelEngine]; [close] leaves it open.
+     */
+    @JvmOverloads
+    constructor(
+        context: Context,
+        engine: ModelEngine,
+        options: AnalysisOptions = AnalysisOptions()
+    ) : this(context, engine, false, options)
+
+    private val config = engine.config
+    private val appContext = context.applicationContext
+
+    init {
+        // Pools and trim-memory callbacks are process-wide
+        CropMemory.install(appContext)
+    }
+
+    private val resultCache: ResultCache? = if (options.cacheResults) {
+        ResultCache(File(context.cacheDir, "crop_results"))
+    } else {
+        null
+    }
+
+    /**
+     * Per-stage latency histograms and cell counters for every analysis run by this instance.
+     */
+    val metrics = PipelineMetrics()
+
+    /**
+     * History of every photo analysis that ran in full: cache hits and latency-budget results are
+     * not recorded (null when [AnalysisOptions.journalResults] is off).
+     * Shared by all [CropSDK] instances in the process.
+     */
+    val journal: ResultJournal? by lazy {
+        if (options.journalResults) ResultJournal.open(File(appContext.filesDir, "crop_history.journal")) else null
+    }
+
+    // Grid workers, one per pooled interpreter pair (parallel mode only)
+    private val gridExecutor: ExecutorService? = if (this.config.parallelGrid) {
+        Executors.newFixedThreadPool(this.config.interpreterPoolSize) { task ->
+            Thread(task, "CropSDK-grid").apply { isDaemon = true }
+        }
+    } else {
+        null
+    }
+
+    // Runs analyzeAsync(bitmap, executor, listener) off the caller's thread
+    private val asyncExecutorHolder = lazy {
+        Executors.newSingleThreadExecutor { task ->
+            Thread(task, "CropSDK-analysis").apply { isDaemon = true }
+        }
+    }
+    private val asyncExecutor: ExecutorService by asyncExecutorHolder
 
+    /**
+     * Inference cost measured on this device by this instance's analyses; what the
+     * latency-budget [analyze] plans with.
+     */
+    val costModel = CostModel()
+
+    // Steps 1-6; everything around them (decoding, cache, journal, metrics) stays here.
+    // Rebuilt when ModelEngine.reload swaps in new models.
+    @Volatile
+    private var pipeline = AnalysisPipeline(engine.backend, options, gridExecutor, config.interpreterPoolSize, costModel)
+
+    /**
+     * Runs the full pipeline on the calling thread and returns the voted result.
+     */
     fun analyze(fullImage: Bitmap): AnalysisResult {
-        val startTime = SystemClock.elapsedRealtime()
+        return runPipeline(pixelsOf(fullImage), true, null) { false }
+    }
+
+    /**
+     * Decodes the photo at [uri] at the resolution the pipeline needs (see
+     * [SampledImageDecoder]) and analyzes it, so the full-resolution image is never in memory.
+     */
+    @Throws(IOException::class)
+    fun analyze(uri: Uri): AnalysisResult = runPipeline(decodeUri(uri), true, null) { false }
+
+    /**
+     * [File] variant of [analyze] for photos the app saved itself.
+     */
+    @Throws(IOException::class)
+    fun analyze(file: File): AnalysisResult = runPipeline(decodeFile(file), true, null) { false }
+
+    /**
+     * Same as [analyze] for callers that already hold the pixels (e.g. converted camera frames).
+     */
+    fun analyze(image: ImagePixels): AnalysisResult = runPipeline({ image }, true, null) { false }
+
+    /**
+     * [analyze] within [budgetMs], counted from this call. After the full-image pass the grid
+     * layout is chosen from [costModel] so the result is due in time: all cells, the aligned
+     * 3x3, the centre cross, the centre only or none. Cells run centre first and stop once the
+     * budget is spent. A result that missed any cell is flagged [AnalysisResult.isDegraded] and
+     * is not cached; the full-image pass always runs, so a very small budget is still exceeded
+     * by that much.
+     */
+    fun analyze(fullImage: Bitmap, budgetMs: Long): AnalysisResult {
+        return runPipeline(pixelsOf(fullImage), true, null, budgetMs) { false }
+    }
+
+    /**
+     * [ImagePixels] variant of the latency-budget [analyze].
+     */
+    fun analyze(image: ImagePixels, budgetMs: Long): AnalysisResult = runPipeline({ image }, true, null, budgetMs) { false }
+
+    /**
+     * Analyzes an image too large to decode whole (orthomosaic, drone survey) tile by tile,
+     * streaming the tiles from [uri], so memory use does not grow with the image. Votes are
+     * aggregated per map region, see [TiledAnalyzer]. Results are not cached or journaled;
+     * interrupting the calling thread stops the analysis after the current batch of tiles.
+     */
+    @JvmOverloads
+    @Throws(IOException::class)
+    fun analyzeTiled(uri: Uri, tiles: TileOptions = TileOptions()): TiledAnalysisResult {
+        val file = appContext.contentResolver.openFileDescriptor(uri, "r") ?: throw IOException("Cannot open $uri")
+        return file.use { runTiled(it, tiles) }
+    }
+
+    /**
+     * [File] variant of [analyzeTiled].
+     */
+    @JvmOverloads
+    @Throws(IOException::class)
+    fun analyzeTiled(file: File, tiles: TileOptions = TileOptions()): TiledAnalysisResult {
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY).use { runTiled(it, tiles) }
+    }
+
+    private fun runTiled(file: ParcelFileDescriptor, tiles: TileOptions): TiledAnalysisResult =
+        CropTrace.section("CropSDK.analyzeTiled") {
+            engine.lease().use { models ->
+                TiledAnalyzer(models.backend, tiles).run(file) { Thread.currentThread().isInterrupted }
+            }
+        }
+
+    /**
+     * Live-preview entry point: frames are never identical, so the result cache is bypassed.
+     */
+    internal fun analyzeFrame(image: ImagePixels): AnalysisResult = runPipeline({ image }, false, null) { false }
+
+    /**
+     * Streaming variant of [analyze] for coroutines. Emits the fallow verdict, the full-image
+     * detection, one [AnalysisEvent.GridCell] per grid cell as it is scored and finally
+     * [AnalysisEvent.Completed]. Inference runs on [Dispatchers.Default]; cancelling the collector
+     * stops the pipeline at the next stage boundary.
+     */
+    fun analyzeAsync(fullImage: Bitmap): Flow<AnalysisEvent> = channelFlow {
+        runPipeline(pixelsOf(fullImage), true, AnalysisListener { trySend(it) }) { !isActive }
+    }.buffer(Channel.UNLIMITED).flowOn(Dispatchers.Default)
+
+    /**
+     * Callback variant of [analyzeAsync] for Java callers. The pipeline runs on a background
+     * thread and every event is delivered through [callbackExecutor] (e.g. the main executor).
+     * Cancelling the returned future stops the pipeline at the next stage boundary and
+     * suppresses any events that have not been delivered yet.
+     */
+    fun analyzeAsync(fullImage: Bitmap, callbackExecutor: Executor, listener: AnalysisListener): Future<AnalysisResult> {
+        return submit(pixelsOf(fullImage), callbackExecutor, listener)
+    }
+
+    /**
+     * [Uri] variant of [analyzeAsync]; decoding happens on the background thread too. A decode
+     * failure surfaces as an [java.util.concurrent.ExecutionException] from the future.
+     */
+    fun analyzeAsync(uri: Uri, callbackExecutor: Executor, listener: AnalysisListener): Future<AnalysisResult> {
+        return submit(decodeUri(uri), callbackExecutor, listener)
+    }
+
+    private fun submit(
+        loadPixels: () -> ImagePixels,
+        callbackExecutor: Executor,
+        listener: AnalysisListener
+    ): Future<AnalysisResult> {
+        lateinit var task: FutureTask<AnalysisResult>
+
+        val forward = AnalysisListener { event ->
+            callbackExecutor.execute {
+                if (!task.isCancelled) listener.onEvent(event)
+            }
+        }
+        task = FutureTask(Callable {
+            runPipeline(loadPixels, true, forward) { task.isCancelled }
+        })
+
+        asyncExecutor.execute(task)
+        return task
+    }
+
+    // Pixels go into a pooled array; runStages hands it back
+    private fun pixelsOf(bitmap: Bitmap): () -> ImagePixels = {
+        ImageUtils.toPixels(bitmap, CropMemory.pixels)
+    }
+
+    private fun decodeUri(uri: Uri): () -> ImagePixels = {
+        pooledPixels(SampledImageDecoder.decode(appContext, uri, decodeShortSide()))
+    }
+
+    private fun decodeFile(file: File): () -> ImagePixels = {
+        pooledPixels(SampledImageDecoder.decode(file, decodeShortSide()))
+    }
+
+    // The decoded bitmap is only needed until its pixels are copied out
+    private fun pooledPixels(bitmap: Bitmap): ImagePixels {
+        try {
+            return ImageUtils.toPixels(bitmap, CropMemory.pixels)
+        } finally {
+            CropMemory.bitmaps.recycle(bitmap)
+        }
+    }
+
+    private fun decodeShortSide(): Int =
+        if (CropMemory.isLowMemory) CropMemory.LOW_MEMORY_SHORT_SIDE else SampledImageDecoder.TARGET_SHORT_SIDE
+
+    /**
+     * Stops the worker threads and, if this instance created its own engine, closes it.
+     * Analyses still running finish first.
+     */
+    override fun close() {
+        gridExecutor?.shutdown()
+        if (asyncExecutorHolder.isInitialized()) asyncExecutor.shutdown()
+        if (ownsEngine) {
+            gridExecutor?.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS)
+            if (asyncExecutorHolder.isInitialized()) asyncExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS)
+            engine.close()
+        }
+    }
+
+    private fun runPipeline(
+        loadPixels: () -> ImagePixels,
+        useCache: Boolean,
+        listener: AnalysisListener?,
+        budgetMs: Long = NO_BUDGET,
+        isCancelled: () -> Boolean
+    ): AnalysisResult = CropTrace.section("CropSDK.analyze") {
+        runStages(loadPixels, useCache, listener, budgetMs, isCancelled)
+    }
 
-        Log.d(TAG, "Starting Crop Analysis Pipeline")
+    private fun runStages(
+        loadPixels: () -> ImagePixels,
+        useCache: Boolean,
+        listener: AnalysisListener?,
+        budgetMs: Long,
+        isCancelled: () -> Boolean
+    ): AnalysisResult {
+        val startNanos = System.nanoTime()
+        val deadlineNanos = if (budgetMs == NO_BUDGET) {
+            AnalysisPipeline.NO_DEADLINE
+        } else {
+            startNanos + TimeUnit.MILLISECONDS.toNanos(budgetMs.coerceAtLeast(0))
+        }
+        val timer = StageTimer()
+
+        // One model generation for the whole analysis, even if a reload swaps in another meanwhile
+        engine.lease().use { models ->
+            models.backend.lowMemory = CropMemory.isLowMemory
+
+            // Pixels are read once; every later stage samples regions from this array
+            val image = timer.time(PipelineStage.DECODE) { loadPixels() }
+            try {
+                return analyzePixels(image, pipelineFor(models.backend), useCache, listener, startNanos, deadlineNanos, timer, isCancelled)
+            } finally {
+                // Pooled arrays go back for the next analysis; callers' own arrays are left alone
+                CropMemory.pixels.release(image.argb)
+            }
+        }
+    }
+
+    private fun pipelineFor(backend: TfliteBackend): AnalysisPipeline {
+        val current = pipeline
+        if (current.backend === backend) return current
+        return AnalysisPipeline(backend, options, gridExecutor, config.interpreterPoolSize, costModel).also { pipeline = it }
+    }
+
+    private fun analyzePixels(
+        image: ImagePixels,
+        pipeline: AnalysisPipeline,
+        useCache: Boolean,
+        listener: AnalysisListener?,
+        startNanos: Long,
+        deadlineNanos: Long,
+        timer: StageTimer,
+        isCancelled: () -> Boolean
+    ): AnalysisResult {
+        CropTrace.event(TraceEvent.ANALYSIS_START, image.width, image.height)
+
+        // Same pixels + same models + same options → same result
+        val imageHash = ContentHash.of(image)
+        val cache = if (useCache) resultCache else null
+        val cacheKey = cache?.let { ResultCache.key(imageHash, pipeline.backend.modelVersion, options) }
+        // Live frames (useCache = false) are not part of the history either
+        val history = if (useCache) journal else null
+        if (cache != null && cacheKey != null) {
+            val cached = cache.get(cacheKey)
+            if (cached != null) {
+                val hit = cached.copy(executionTimeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), isCached = true)
+                CropTrace.event(TraceEvent.CACHE_HIT, hit.executionTimeMs.toInt())
+                // Already in the history from the run that filled the cache; reopening a photo
+                // must not count it again
+                timer.cacheHit = true
+                metrics.record(timer)
+
+                listener?.onEvent(AnalysisEvent.FallowVerdict(hit.isBarren, hit.barrenConfidence))
+                listener?.onEvent(AnalysisEvent.FullImageDetection(hit.fullImageAnalysis))
+                listener?.onEvent(AnalysisEvent.Completed(hit))
+                return hit
+            }
+        }
+
+        val result = pipeline.run(image, imageHash, startNanos, listener, timer, deadlineNanos, isCancelled)
+        // A degraded result would be served to later calls without a budget, and the journal
+        // could not tell it from a full one
+        if (!result.isDegraded) {
+            if (cache != null && cacheKey != null) cache.put(cacheKey, result)
+            history?.append(result)
+        }
+        metrics.record(timer)
+
+        listener?.onEvent(AnalysisEvent.Completed(result))
+        return result
+    }
+
+    companion object {
+        private const val NO_BUDGET = -1L
+    }
+}
+
+//AnalysisPipeline.kt
+package com.example.cropanalysissdk
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CancellationException
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.TimeUnit
+
+/**
+ * Steps 1-6 of the analysis (fallow check, full-image pass, grid pass, voting, override,
+ * fallback) on already-decoded pixels. Plain JVM code: [CropSDK] wraps it with decoding, the
+ * result cache and the journal, and the headless runner uses it as is.
+ *
+ * Safe to call from several threads at once as long as [backend] is.
+ *
+ * @param gridExecutor scores chunks of grid cells in parallel; null scores them on the caller
+ * @param gridWorkers chunks per grid pass when [gridExecutor] is set, and early-exit wave size
+ * @param costModel measured inference cost on this device, updated by every run; drives
+ * latency-budget runs. Pipelines for successive model generations share one.
+ */
+class AnalysisPipeline @JvmOverloads constructor(
+    internal val backend: InferenceBackend,
+    private val options: AnalysisOptions = AnalysisOptions(),
+    private val gridExecutor: ExecutorService? = null,
+    private val gridWorkers: Int = 1,
+    val costModel: CostModel = CostModel()
+) {
+
+    // CONFIG (Matching Python)
+    private val CONF_THRESH = VotingRules.CONF_THRESH
+    private val VOTE_THRESH = VotingRules.VOTE_THRESH
+
+    /**
+     * Analyzes [image] on the calling thread.
+     */
+    fun run(image: ImagePixels): AnalysisResult {
+        return run(image, ContentHash.of(image), System.nanoTime(), null, StageTimer()) { false }
+    }
 
+    /**
+     * Pipeline entry for [CropSDK], which has already decoded and hashed [image]. Does not emit
+     * [AnalysisEvent.Completed]; the caller does once the result is stored.
+     *
+     * @param startNanos [System.nanoTime] when the caller started, so decoding and hashing count
+     * towards [AnalysisResult.executionTimeMs]
+     * @param deadlineNanos [System.nanoTime] by which the result is due, see [scoreGridWithinBudget];
+     * [NO_DEADLINE] runs the full grid
+     */
+    internal fun run(
+        image: ImagePixels,
+        imageHash: Long,
+        startNanos: Long,
+        listener: AnalysisListener?,
+        timer: StageTimer,
+        deadlineNanos: Long = NO_DEADLINE,
+        isCancelled: () -> Boolean
+    ): AnalysisResult {
+        val fullPassStart = System.nanoTime()
 
         // 1. BARREN CHECK (Full Image)
-        var (isGlobalBarren, barrenConf) = engine.isBarren(fullImage)
+        var (isGlobalBarren, barrenConf) = barren(image, timer)
+        CropTrace.event(TraceEvent.FALLOW_VERDICT, if (isGlobalBarren) 1 else 0, value = barrenConf)
 
-        Log.d(TAG, "Run 1: Fallow Detection:")
-        Log.d(TAG, "  IsFallow: $isGlobalBarren")
-        Log.d(TAG, "  Confidence: ${barrenConf * 100}%")
+        listener?.onEvent(AnalysisEvent.FallowVerdict(isGlobalBarren, barrenConf))
+        checkCancelled(isCancelled)
 
         // 2. FULL IMAGE PASS (Always run - matching Python behavior)
-        val (fullCropName, fullCropConf) = engine.classifyCrop(fullImage)
+        val (fullCropName, fullCropConf) = classify(image, timer)
         val fullImageDetection = CropDetection(
             cropName = fullCropName,
             confidence = fullCropConf,
@@ -37,341 +441,4703 @@ class CropSDK(context: Context) {
             location = "Entire Field",
             source = "Full-Image-Prior"
         )
+        CropTrace.cropEvent(TraceEvent.FULL_IMAGE, fullCropName, value = fullCropConf)
 
-        Log.d(TAG, "STEP 2 - Full Image Crop Detection:")
-        Log.d(TAG, "  Crop: $fullCropName")
-        Log.d(TAG, "  Confidence: ${fullCropConf * 100}%")
+        listener?.onEvent(AnalysisEvent.FullImageDetection(fullImageDetection))
+        costModel.recordFullPass(System.nanoTime() - fullPassStart)
+        checkCancelled(isCancelled)
 
         // 🔴 SMART FIX: If Barren says "Barren" but Crop Model is >90% confident, it's a False Positive
         if (isGlobalBarren && fullCropConf > 0.90f) {
-            Log.d(TAG, " Fallow detected but crop confidence is ${fullCropConf * 100}%")
-            Log.d(TAG, "  → Treating as FALSE POSITIVE, marking as Non-Fallow")
+            // Treated as a false positive, marked Non-Fallow
+            CropTrace.cropEvent(TraceEvent.FALLOW_OVERRULED, fullCropName, value = fullCropConf)
             isGlobalBarren = false
             // Keep barrenConf as the crop confidence
         }
 
         // 3. GRID PASS
-        val allDetections = mutableListOf<CropDetection>()
-
-        Log.d(TAG, "STEP 3 - Grid Analysis:")
+        val grids = GridLayout.analysisGrid(image.width, image.height)
+        // Crop scores of every cell; empty rows (barren, prefiltered, not run) do not vote
+        val cellScores = VoteMatrix(grids.size)
+        var overBudget = emptyList<Int>()
 
         // 🔴 CRITICAL: Even if barren, we still run grid (matching Python comment in spec)
         // But we optimize by skipping if we're confident it's barren
         val shouldRunGrid = !isGlobalBarren || fullCropConf > 0.70f
 
         if (shouldRunGrid) {
-            Log.d(TAG, "  Running grid detection...")
-
-            val grids = ImageUtils.splitBitmap(fullImage, 3, 3, false) +
-                    ImageUtils.splitBitmap(fullImage, 3, 3, true) // Offset
-
-            grids.forEachIndexed { index, cell ->
-                if (!ImageUtils.isMostlySky(cell)) {
-                    // Check if this region is barren
-                    val (localBarren, localBarrenConf) = engine.isBarren(cell)
-
-                    if (!localBarren) {
-                        val (crop, conf) = engine.classifyCrop(cell)
-
-                        if (conf >= CONF_THRESH) {
-                            val locName = if (index < 9) ImageUtils.getGridLocationName(index) else "Offset-Region"
-                            val source = if (index < 9) "Grid-Aligned" else "Grid-Offset"
+            // One pass over a thumbnail answers the sky / bare-soil check for every cell in O(1);
+            // both models then run once over all surviving cells
+            val stats = timer.time(PipelineStage.SKY_CHECK) { RegionStats.compute(image) }
+            val prefiltered = timer.time(PipelineStage.SKY_CHECK) {
+                Array(grids.size) { index ->
+                    when {
+                        stats.isMostlySky(grids[index]) -> CellStatus.SKY
+                        options.skipBareSoilCells && stats.isBareSoil(grids[index]) -> CellStatus.BARE_SOIL
+                        else -> null
+                    }
+                }
+            }
+            val candidates = grids.indices.filter { prefiltered[it] == null }
+            if (listener != null) {
+                for (index in grids.indices) {
+                    val status = prefiltered[index] ?: continue
+                    listener.onEvent(AnalysisEvent.GridCell(index, status, 0f, null))
+                }
+            }
 
-                            allDetections.add(CropDetection(crop, conf, 1, locName, source))
+            val cascade = CellCascade(options.cascade, stats, isGlobalBarren, barrenConf, fullCropName, fullCropConf)
+            val gridStart = System.nanoTime()
+            var earlyExitSkipped = emptyList<Int>()
+            if (deadlineNanos != NO_DEADLINE) {
+                // Records its own per-wave costs
+                overBudget = scoreGridWithinBudget(image, grids, cascade, candidates, deadlineNanos, cellScores, listener, timer, isCancelled)
+            } else if (options.earlyExit) {
+                earlyExitSkipped = scoreGridIncremental(image, grids, cascade, ALIGNED_CELLS, candidates, fullCropName, cellScores, listener, timer, isCancelled)
+            } else {
+                scoreGrid(image, grids, cascade, candidates, cellScores, listener, timer, isCancelled)
+            }
+            checkCancelled(isCancelled)
+            timer.cellsRun = candidates.size - earlyExitSkipped.size - overBudget.size
+            timer.cellsSkipped = grids.size - timer.cellsRun
+            if (deadlineNanos == NO_DEADLINE) costModel.recordCells(System.nanoTime() - gridStart, timer.cellsRun)
 
-                            Log.d(TAG, "     Region $index: $crop (${conf * 100}%) at $locName")
-                        } else {
-                            Log.d(TAG, "     Region $index: Confidence too low (${conf * 100}%)")
-                        }
-                    } else {
-                        Log.d(TAG, "     Region $index: Barren (skipped)")
-                    }
+            for (index in grids.indices) {
+                if (prefiltered[index] == CellStatus.SKY) {
+                    CropTrace.event(TraceEvent.CELL_SKY, index)
+                } else if (prefiltered[index] == CellStatus.BARE_SOIL) {
+                    CropTrace.event(TraceEvent.CELL_BARE_SOIL, index)
+                } else if (index in earlyExitSkipped) {
+                    CropTrace.event(TraceEvent.CELL_DECIDED, index)
+                } else if (index in overBudget) {
+                    CropTrace.event(TraceEvent.CELL_OVER_BUDGET, index)
+                } else if (!cellScores.isScored(index)) {
+                    CropTrace.event(TraceEvent.CELL_BARREN, index)
                 } else {
-                    Log.d(TAG, "     Region $index: Sky detected (skipped)")
+                    val conf = cellScores.confidence(index)
+                    val event = if (conf >= CONF_THRESH) TraceEvent.CELL_DETECTED else TraceEvent.CELL_LOW_CONFIDENCE
+                    CropTrace.cellEvent(event, index, cellScores.cropName(index), conf)
                 }
             }
-
-            Log.d(TAG, "  Total valid detections: ${allDetections.size}")
         } else {
-            Log.d(TAG, "  Skipping grid (high confidence barren)")
+            // High confidence barren
+            CropTrace.event(TraceEvent.GRID_SKIPPED)
         }
 
         // 4. VOTING ENGINE (Python Replica)
-        Log.d(TAG, "STEP 4 - Voting Engine:")
-
-        val votesMap = allDetections.groupBy { it.cropName }
-        var finalResults = mutableListOf<CropDetection>()
-
-        for ((crop, items) in votesMap) {
-            val voteCount = items.size
-            val avgConf = items.map { it.confidence }.average().toFloat()
+        val finalResults = timer.time(PipelineStage.VOTING) {
+            VotingEngine.vote(cellScores, fullCropName, if (CropTrace.isEnabled) traceVotes else null)
+        }
 
-            Log.d(TAG, "  Crop: $crop")
-            Log.d(TAG, "    Votes: $voteCount")
-            Log.d(TAG, "    Avg Confidence: ${avgConf * 100}%")
+        // 5. CRITICAL OVERRIDE / 6. FALLBACK
+        val resolution = timer.time(PipelineStage.OVERRIDE) {
+            VotingEngine.resolve(finalResults, fullCropName, fullCropConf, isGlobalBarren)
+        }
+        when (resolution) {
+            VotingEngine.Resolution.OVERRIDE -> CropTrace.cropEvent(TraceEvent.OVERRIDE, fullCropName, value = fullCropConf)
+            VotingEngine.Resolution.FALLBACK -> CropTrace.cropEvent(TraceEvent.FALLBACK, fullCropName, value = fullCropConf)
+            VotingEngine.Resolution.ENSEMBLE -> {}
+        }
 
-            // Logic: Is this the same crop as the Full Image?
-            val isFullPrior = (crop == fullCropName)
+        val executionTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)
+        CropTrace.event(TraceEvent.ANALYSIS_END, finalResults.size, executionTime.toInt())
 
-            // Dynamic Thresholds
-            val voteReq = if (isFullPrior) 2 else VOTE_THRESH
-            val confReq = if (isFullPrior) 0.60f else CONF_THRESH
-            val isSuperHighConf = (voteCount >= 1 && avgConf >= 0.99f)
+        return AnalysisResult(
+            isBarren = isGlobalBarren,
+            barrenConfidence = barrenConf,
+            fullImageAnalysis = fullImageDetection,
+            gridDetections = finalResults,
+            executionTimeMs = executionTime,
+            isDegraded = overBudget.isNotEmpty(),
+            imageHash = imageHash
+        )
+    }
 
-            Log.d(TAG, "    IsFullPrior: $isFullPrior")
-            Log.d(TAG, "    Required - Votes: $voteReq, Confidence: ${confReq * 100}%")
+    /**
+     * Latency-budget grid pass. Picks the densest [GridDensity] whose cells [costModel] expects
+     * to finish before [deadlineNanos], then scores them in [GridLayout.budgetOrder] (centre
+     * first) in small waves, re-checking the deadline before each wave since the estimate can
+     * be off.
+     *
+     * @return candidate cells that were not scored
+     */
+    private fun scoreGridWithinBudget(
+        image: ImagePixels,
+        grids: List<GridRegion>,
+        cascade: CellCascade,
+        candidates: List<Int>,
+        deadlineNanos: Long,
+        out: VoteMatrix,
+        listener: AnalysisListener?,
+        timer: StageTimer,
+        isCancelled: () -> Boolean
+    ): List<Int> {
+        val candidateSet = candidates.toHashSet()
+        val order = GridLayout.budgetOrder(grids.size)
+        val cellNanos = costModel.cellEstimateNanos()
+        val remaining = deadlineNanos - System.nanoTime()
 
-            if ((voteCount >= voteReq && avgConf >= confReq) || isSuperHighConf) {
-                // Formatting Location String
-                val distinctLocs = items.map { it.location }
-                    .distinct()
-                    .filter { it != "Offset-Region" }
-                    .joinToString(", ")
+        // Sky cells are free, so a layout is judged by the candidates it contains
+        val density = GridDensity.values().first { density ->
+            density == GridDensity.NONE || order.take(density.cells).count { it in candidateSet } * cellNanos <= remaining
+        }
+        val planned = order.take(density.cells).filter { it in candidateSet }
+        CropTrace.event(TraceEvent.GRID_BUDGET, density.ordinal, TimeUnit.NANOSECONDS.toMillis(remaining).toInt())
 
-                finalResults.add(CropDetection(
-                    cropName = crop,
-                    confidence = avgConf,
-                    votes = voteCount,
-                    location = if (distinctLocs.isEmpty()) "Multiple Regions" else distinctLocs,
-                    source = if (isFullPrior) "Full-Image-Prior" else "Grid-Consensus"
-                ))
+        var next = 0
+        while (next < planned.size) {
+            val wave = planned.subList(next, minOf(next + gridWorkers * BUDGET_WAVE_CELLS, planned.size))
+            if (System.nanoTime() + costModel.cellEstimateNanos() * wave.size > deadlineNanos) break
 
-                Log.d(TAG, "     ACCEPTED")
-            } else {
-                Log.d(TAG, "     REJECTED (insufficient votes/confidence)")
-            }
+            val waveStart = System.nanoTime()
+            scoreGrid(image, grids, cascade, wave, out, listener, timer, isCancelled)
+            costModel.recordCells(System.nanoTime() - waveStart, wave.size)
+            next += wave.size
         }
 
-        Log.d(TAG, "  Final results after voting: ${finalResults.size}")
+        val scored = planned.subList(0, next).toHashSet()
+        val skipped = candidates.filter { it !in scored }
+        skipped.forEach { listener?.onEvent(AnalysisEvent.GridCell(it, CellStatus.SKIPPED, 0f, null)) }
+        return skipped
+    }
 
-        // 5. CRITICAL OVERRIDE (Python: "Replacing ensemble output with full-image result")
-        val finalCropNames = finalResults.map { it.cropName }
+    /**
+     * Early-exit grid pass. The aligned cells tile the whole frame, so they always run first and
+     * define which crops can still appear. The offset cells only re-sample that content; they run
+     * in small waves, most disputed area first, until [VoteTally.isDecided] says no remaining cell
+     * could change the accepted set (and with it the step-5 override).
+     *
+     * @return offset cells that were never scored
+     */
+    private fun scoreGridIncremental(
+        image: ImagePixels,
+        grids: List<GridRegion>,
+        cascade: CellCascade,
+        alignedCount: Int,
+        candidates: List<Int>,
+        fullCropName: String,
+        out: VoteMatrix,
+        listener: AnalysisListener?,
+        timer: StageTimer,
+        isCancelled: () -> Boolean
+    ): List<Int> {
+        val aligned = candidates.filter { it < alignedCount }
+        scoreGrid(image, grids, cascade, aligned, out, listener, timer, isCancelled)
 
-        // 🔴 FIXED: This now works correctly because barren logic is fixed
-        if (!isGlobalBarren && fullCropName != "Unknown" && !finalCropNames.contains(fullCropName)) {
-            Log.d(TAG, "STEP 5 - Override Triggered:")
-            Log.d(TAG, "   Full image crop '$fullCropName' not in ensemble results")
-            Log.d(TAG, "  → Replacing ensemble with full-image result")
+        val tally = VoteTally(fullCropName)
+        aligned.forEach { index -> if (out.isScored(index)) tally.add(out.topClass(index), out.confidence(index)) }
 
-            finalResults.clear()
-            finalResults.add(CropDetection(
-                cropName = fullCropName,
-                confidence = fullCropConf,
-                votes = 1,
-                location = "Entire Field",
-                source = "Full-Image-Override"
-            ))
+        val offset = orderByDisagreement(candidates.filter { it >= alignedCount }, grids, alignedCount, out)
+        var next = 0
+        while (next < offset.size && !tally.isDecided(offset.size - next)) {
+            val wave = offset.subList(next, minOf(next + gridWorkers, offset.size))
+            scoreGrid(image, grids, cascade, wave, out, listener, timer, isCancelled)
+            wave.forEach { index -> if (out.isScored(index)) tally.add(out.topClass(index), out.confidence(index)) }
+            next += wave.size
         }
 
-        // 6. FALLBACK (if everything else failed)
-        if (!isGlobalBarren && finalResults.isEmpty() && fullCropName != "Unknown") {
-            Log.d(TAG, "STEP 6 - Fallback Mode:")
-            Log.d(TAG, "  No ensemble results, using full-image fallback")
+        val skipped = offset.subList(next, offset.size)
+        skipped.forEach { listener?.onEvent(AnalysisEvent.GridCell(it, CellStatus.SKIPPED, 0f, null)) }
+        return skipped
+    }
 
-            finalResults.add(CropDetection(
-                cropName = fullCropName,
-                confidence = fullCropConf,
-                votes = 0,
-                location = "Entire Field",
-                source = "Fallback-Mode"
-            ))
+    /**
+     * Orders offset cells by how many different outcomes the aligned cells under them produced,
+     * so the cells most likely to move a vote run first.
+     */
+    private fun orderByDisagreement(
+        cells: List<Int>,
+        grids: List<GridRegion>,
+        alignedCount: Int,
+        out: VoteMatrix
+    ): List<Int> {
+        return cells.sortedByDescending { index ->
+            val cell = grids[index]
+            (0 until minOf(alignedCount, grids.size))
+                .filter { overlaps(cell, grids[it]) }
+                .map { aligned -> if (out.confidence(aligned) >= CONF_THRESH) out.topClass(aligned) else VoteMatrix.EMPTY }
+                .distinct()
+                .size
         }
+    }
 
-        val executionTime = SystemClock.elapsedRealtime() - startTime
+    private fun overlaps(a: GridRegion, b: GridRegion): Boolean {
+        return a.left < b.left + b.width && b.left < a.left + a.width &&
+                a.top < b.top + b.height && b.top < a.top + a.height
+    }
 
-        Log.d(TAG, "Analysis Complete")
-        Log.d(TAG, "  Final Detections: ${finalResults.size}")
-        Log.d(TAG, "  Execution Time: $executionTime ms")
+    private val traceVotes = VotingEngine.VoteObserver { crop, votes, avgConf, accepted ->
+        CropTrace.cropEvent(if (accepted) TraceEvent.VOTE_ACCEPTED else TraceEvent.VOTE_REJECTED, crop, votes, avgConf)
+    }
 
+    private fun cellDetection(index: Int, crop: String, conf: Float): CropDetection {
+        val locName = if (index < ALIGNED_CELLS) GridLayout.locationName(index) else "Offset-Region"
+        val source = if (index < ALIGNED_CELLS) "Grid-Aligned" else "Grid-Offset"
+        return CropDetection(crop, conf, 1, locName, source, 1 shl index)
+    }
 
-        return AnalysisResult(
-            isBarren = isGlobalBarren,
-            barrenConfidence = barrenConf,
-            fullImageAnalysis = fullImageDetection,
-            gridDetections = finalResults,
-            executionTimeMs = executionTime
-        )
+    private fun checkCancelled(isCancelled: () -> Boolean) {
+        if (isCancelled()) throw CancellationException("Crop analysis cancelled")
     }
-}
 
-//ModelEngine.kt
-package com.example.cropanalysissdk
+    /**
+     * Scores [cells] and stores the crop scores of every non-barren cell in [out], indexed like
+     * [grids]. In parallel mode the cells are split into contiguous chunks, one per worker; each
+     * chunk writes disjoint slots, so [out] ends up the same as in sequential mode.
+     */
+    private fun scoreGrid(
+        image: ImagePixels,
+        grids: List<GridRegion>,
+        cascade: CellCascade,
+        cells: List<Int>,
+        out: VoteMatrix,
+        listener: AnalysisListener?,
+        timer: StageTimer,
+        isCancelled: () -> Boolean
+    ) {
+        val executor = gridExecutor
+        if (executor == null || cells.size < 2) {
+            scoreCells(image, grids, cascade, cells, out, listener, timer, isCancelled)
+            return
+        }
 
-import android.content.Context
-import android.graphics.Bitmap
-import org.tensorflow.lite.Interpreter
-import org.tensorflow.lite.support.common.FileUtil
-import org.tensorflow.lite.support.image.TensorImage
-import org.tensorflow.lite.support.image.ops.ResizeOp
-import org.tensorflow.lite.support.image.ImageProcessor
-import org.tensorflow.lite.support.tensorbuffer.TensorBuffer
-import org.tensorflow.lite.DataType
-import org.tensorflow.lite.support.common.ops.NormalizeOp
+        val chunkSize = (cells.size + gridWorkers - 1) / gridWorkers
+        val futures = cells.chunked(chunkSize).map { chunk ->
+            executor.submit(Callable { scoreCells(image, grids, cascade, chunk, out, listener, timer, isCancelled) })
+        }
+
+        try {
+            futures.forEach { it.get() }
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+    }
+
+    /**
+     * Scores one chunk of cells and reports each of them to [listener] as soon as the chunk is done.
+     * In parallel mode this runs on several workers at once.
+     */
+    private fun scoreCells(
+        image: ImagePixels,
+        grids: List<GridRegion>,
+        cascade: CellCascade,
+        cells: List<Int>,
+        out: VoteMatrix,
+        listener: AnalysisListener?,
+        timer: StageTimer,
+        isCancelled: () -> Boolean
+    ) {
+        checkCancelled(isCancelled)
+        val (barrenFirst, cropFirst) = cells.partition { cascade.barrenFirst(grids[it]) }
 
-class ModelEngine(context: Context) {
+        // Check if these regions are barren
+        val barrenResults = barrenBatch(image, barrenFirst.map { grids[it] }, timer)
+        checkCancelled(isCancelled)
 
-    private var barrenInterpreter: Interpreter? = null
-    private var cropInterpreter: Interpreter? = null
+        // One crop batch for the non-barren cells and the crop-first ones
+        val cropCells = barrenFirst.filterIndexed { i, _ -> !barrenResults[i].first } + cropFirst
+        classifyBatch(image, cropCells.map { grids[it] }, out, cropCells, timer)
 
-    // Labels (Maize=0, Rice=1, Soybean=2, Sugarcane=3)
-    private val cropLabels = listOf("Maize", "Rice", "Soybean", "Sugarcane")
+        // Crop-first cells get the barren model only where its verdict can still matter
+        val verify = cropFirst.filter { index ->
+            cascade.needsBarrenCheck(grids[index], out.cropName(index), out.confidence(index))
+        }
+        var verifiedBarren = 0
+        if (verify.isNotEmpty()) {
+            checkCancelled(isCancelled)
+            val verdicts = barrenBatch(image, verify.map { grids[it] }, timer)
+            verify.forEachIndexed { i, index ->
+                if (verdicts[i].first) {
+                    out.clear(index)
+                    verifiedBarren++
+                }
+            }
+        }
 
-    init {
-        val options = Interpreter.Options().apply { numThreads = 4 }
+        timer.inferencesRun.addAndGet(barrenFirst.size + cropCells.size + verify.size)
+        // Against BARREN_FIRST on the same cells: barren-first cells cost the same, a crop-first
+        // cell without a barren check saves the check, and one the check found barren cost a
+        // crop run BARREN_FIRST would have skipped. Unchecked cells count as not barren.
+        timer.inferencesSaved.addAndGet(cropFirst.size - verify.size - verifiedBarren)
 
-        // Load models with correct filenames
-        barrenInterpreter = Interpreter(FileUtil.loadMappedFile(context, "barren_vs_crop_model_v3.tflite"), options)
-        cropInterpreter = Interpreter(FileUtil.loadMappedFile(context, "phase1_model.tflite"), options)
+        if (listener != null) {
+            for (index in cells) {
+                val conf = out.confidence(index)
+                val event = when {
+                    !out.isScored(index) -> AnalysisEvent.GridCell(index, CellStatus.BARREN, 0f, null)
+                    conf >= CONF_THRESH -> AnalysisEvent.GridCell(
+                        index, CellStatus.DETECTED, conf,
+                        cellDetection(index, out.cropName(index), conf)
+                    )
+                    else -> AnalysisEvent.GridCell(index, CellStatus.LOW_CONFIDENCE, conf, null)
+                }
+                listener.onEvent(event)
+            }
+        }
     }
 
-    /**
-     * 🔴 FIXED: Corrected barren detection logic to match Python/Streamlit
-     *
-     * Barren Model Output Interpretation:
-     * - prob > 0.5  → Non-Barren (CROP present)
-     * - prob ≤ 0.5  → Barren land
-     *
-     * @return Pair(isBarren: Boolean, confidence: Float)
-     */
+    // TfliteBackend splits its own time into preprocessing and inference; any other backend is
+    // timed as a whole
 
-//    fun isBarren(bitmap: Bitmap): Pair<Boolean, Float> {
-//        val imageProcessor = ImageProcessor.Builder()
-//            .add(ResizeOp(224, 224, ResizeOp.ResizeMethod.BILINEAR))
-//            // NO NORMALIZATION: Input stays 0-255 (matches training)
-//            .build()
-//
-//        var tImage = TensorImage(DataType.FLOAT32)
-//        tImage.load(bitmap)
-//        tImage = imageProcessor.process(tImage)
-//
-//        val outputBuffer = TensorBuffer.createFixedSize(intArrayOf(1, 1), DataType.FLOAT32)
-//        barrenInterpreter?.run(tImage.buffer, outputBuffer.buffer.rewind())
-//
-//        val prob = outputBuffer.floatArray[0]
-//
-//        // Safety: If NaN, assume Crop (safer fallback)
-//        if (prob.isNaN()) return Pair(false, 0.5f)
-//
-//        // 🔴 CORRECTED LOGIC:
-//        // prob > 0.5 means CROP (non-barren)
-//        // prob ≤ 0.5 means BARREN
-//        val isCrop = prob > 0.5f
-//        val isBarren = !isCrop
-//
-//        // Confidence = distance from decision boundary
-//        val confidence = if (isCrop) prob else (1.0f - prob)
-//
-//        return Pair(isBarren, confidence)
-//    }
-
-    fun isBarren(bitmap: Bitmap): Pair<Boolean, Float> {
-        val imageProcessor = ImageProcessor.Builder()
-            .add(ResizeOp(224, 224, ResizeOp.ResizeMethod.BILINEAR))
-            // NO NORMALIZATION: Input stays 0-255 (matches training)
-            .add(NormalizeOp(0f, 255f))
-            .build()
-
-        var tImage = TensorImage(DataType.FLOAT32)
-        tImage.load(bitmap)
-        tImage = imageProcessor.process(tImage)
-
-        val outputBuffer = TensorBuffer.createFixedSize(intArrayOf(1, 1), DataType.FLOAT32)
-        barrenInterpreter?.run(tImage.buffer, outputBuffer.buffer.rewind())
-
-        val prob = outputBuffer.floatArray[0]
+    private fun barren(image: ImagePixels, timer: StageTimer): Pair<Boolean, Float> {
+        val b = backend
+        return if (b is TfliteBackend) b.isBarren(image, timer)
+        else timer.time(PipelineStage.BARREN_INFERENCE) { b.isBarren(image) }
+    }
 
-        // Safety: If NaN, assume Crop (safer fallback)
-        if (prob.isNaN()) return Pair(false, 0.5f)
+    private fun classify(image: ImagePixels, timer: StageTimer): Pair<String, Float> {
+        val b = backend
+        return if (b is TfliteBackend) b.classifyCrop(image, timer)
+        else timer.time(PipelineStage.CROP_INFERENCE) { b.classifyCrop(image) }
+    }
 
-        // 🔴 CORRECTED LOGIC:
+    private fun barrenBatch(image: ImagePixels, regions: List<GridRegion>, timer: StageTimer): List<Pair<Boolean, Float>> {
+        val b = backend
+        return if (b is TfliteBackend) b.isBarrenBatch(image, regions, timer)
+        else timer.time(PipelineStage.BARREN_INFERENCE) { b.isBarrenBatch(image, regions) }
+    }
+
+    private fun classifyBatch(image: ImagePixels, regions: List<GridRegion>, out: VoteMatrix, cells: List<Int>, timer: StageTimer) {
+        val b = backend
+        if (b is TfliteBackend) b.classifyCropBatch(image, regions, timer, out, cells)
+        else timer.time(PipelineStage.CROP_INFERENCE) { b.classifyCropBatch(image, regions, out, cells) }
+    }
+
+    companion object {
+        /** [run] without a latency budget. */
+        internal const val NO_DEADLINE = Long.MAX_VALUE
+
+        private const val ALIGNED_CELLS = GridLayout.ALIGNED_CELLS
+
+        // Cells per worker between two deadline checks
+        private const val BUDGET_WAVE_CELLS = 3
+    }
+}
+
+//InferenceBackend.kt
+package com.example.cropanalysissdk
+
+/**
+ * The two models behind the pipeline, as seen by code that only needs their answers.
+ * [ModelEngine] is the TFLite implementation; a deterministic stand-in lets the Kotlin parts of
+ * the hot path run on a plain JVM (see the benchmark module).
+ */
+interface InferenceBackend {
+
+    /** Identifies the models in use; part of every cache key. */
+    val modelVersion: String
+
+    /** @return Pair(isBarren, confidence) for the whole image */
+    fun isBarren(image: ImagePixels): Pair<Boolean, Float>
+
+    /** @return one Pair(isBarren, confidence) per region, in input order */
+    fun isBarrenBatch(image: ImagePixels, regions: List<GridRegion>): List<Pair<Boolean, Float>>
+
+    /** @return Pair(cropName, confidence) for the whole image, "Unknown" if nothing scored */
+    fun classifyCrop(image: ImagePixels): Pair<String, Float>
+
+    /** @return one Pair(cropName, confidence) per region, in input order */
+    fun classifyCropBatch(image: ImagePixels, regions: List<GridRegion>): List<Pair<String, Float>>
+
+    /**
+     * [classifyCropBatch] into [matrix]: region i fills and completes row `cells[i]`. This
+     * default only has the top class to give; backends that see the whole distribution write
+     * every class.
+     */
+    fun classifyCropBatch(image: ImagePixels, regions: List<GridRegion>, matrix: VoteMatrix, cells: List<Int>) {
+        val results = classifyCropBatch(image, regions)
+        for (i in results.indices) {
+            matrix.setTop(cells[i], matrix.labels.indexOf(results[i].first), results[i].second)
+        }
+    }
+
+    companion object {
+        // Labels (Maize=0, Rice=1, Soybean=2, Sugarcane=3), the crop model's output order
+        @JvmField
+        val CROP_LABELS = listOf("Maize", "Rice", "Soybean", "Sugarcane")
+    }
+}
+
+//ModelEngine.kt
+package com.example.cropanalysissdk
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.util.Log
+import org.tensorflow.lite.support.common.FileUtil
+import java.io.Closeable
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Runs the barren and crop models: the release installed in [ModelStore] if there is one,
+ * otherwise the APK assets named in [EngineConfig]. The inference itself lives in
+ * [TfliteBackend], which has no Android dependencies; this class maps the models, adds the
+ * Bitmap conveniences and lets [reload] swap in new models while analyses keep running.
+ */
+class ModelEngine private constructor(
+    initial: TfliteBackend,
+    private val requestedConfig: EngineConfig
+) : InferenceBackend, Closeable {
+
+    @JvmOverloads
+    constructor(context: Context, config: EngineConfig = EngineConfig()) :
+        this(load(context, config.resolved()), config.resolved())
+
+    private val TAG = "ModelEngine"
+
+    private val current = AtomicReference(EngineGeneration(initial))
+    private var closed = false
+
+    /**
+     * The models in use right now. An analysis [lease]s its generation instead, so a [reload]
+     * cannot change models half way through it.
+     */
+    internal val backend: TfliteBackend
+        get() = current.get().backend
+
+    /**
+     * The [EngineConfig] the current models run with, after [EngineConfig.resolved]; with
+     * [EngineConfig.autoTune] it includes the tuning measured for them.
+     */
+    val config: EngineConfig
+        get() = backend.config
+
+    override val modelVersion: String
+        get() = backend.modelVersion
+
+    override fun isBarren(image: ImagePixels): Pair<Boolean, Float> = withBackend { it.isBarren(image) }
+
+    override fun isBarrenBatch(image: ImagePixels, regions: List<GridRegion>): List<Pair<Boolean, Float>> =
+        withBackend { it.isBarrenBatch(image, regions) }
+
+    override fun classifyCrop(image: ImagePixels): Pair<String, Float> = withBackend { it.classifyCrop(image) }
+
+    override fun classifyCropBatch(image: ImagePixels, regions: List<GridRegion>): List<Pair<String, Float>> =
+        withBackend { it.classifyCropBatch(image, regions) }
+
+    override fun classifyCropBatch(image: ImagePixels, regions: List<GridRegion>, matrix: VoteMatrix, cells: List<Int>) =
+        withBackend { it.classifyCropBatch(image, regions, matrix, cells) }
+
+    /**
+     * 🔴 FIXED: Corrected barren detection logic to match Python/Streamlit
+     *
+     * Barren Model Output Interpretation:
+     * - prob > 0.5  → Non-Barren (CROP present)
+     * - prob ≤ 0.5  → Barren land
+     *
+     * @return Pair(isBarren: Boolean, confidence: Float)
+     */
+    fun isBarren(bitmap: Bitmap): Pair<Boolean, Float> = isBarren(ImageUtils.toPixels(bitmap))
+
+    /**
+     * Classifies the crop type from a bitmap.
+     *
+     * @return Pair(cropName: String, confidence: Float)
+     */
+    fun classifyCrop(bitmap: Bitmap): Pair<String, Float> = classifyCrop(ImageUtils.toPixels(bitmap))
+
+    /**
+     * See [TfliteBackend.warmUp]. Blocks; call it off the main thread.
+     */
+    fun warmUp() = withBackend { it.warmUp() }
+
+    /**
+     * Loads the models [ModelStore] now has active (the assets after [ModelStore.reset]) into
+     * new interpreters with the same config, warms them up and swaps them in atomically.
+     * Analyses already running finish on the models they started with; the old interpreters
+     * close after the last of them. Blocks; call it off the main thread.
+     *
+     * @return false if the engine already runs exactly these models
+     */
+    fun reload(context: Context): Boolean {
+        // The config as requested, so a new release gets its own tuning instead of the old one's
+        val next = load(context, requestedConfig)
+        if (next.modelVersion == modelVersion) {
+            next.close()
+            return false
+        }
+        next.warmUp()
+
+        val previous = synchronized(this) {
+            if (closed) null else current.getAndSet(EngineGeneration(next))
+        }
+        if (previous == null) {
+            next.close()
+            throw IllegalStateException("ModelEngine is closed")
+        }
+        previous.release()
+        Log.i(TAG, "Swapped in ${next.modelVersion}")
+        return true
+    }
+
+    /**
+     * Pins the current models until [EngineGeneration.release]; they stay open even if a
+     * [reload] replaces them meanwhile.
+     */
+    internal fun lease(): EngineGeneration {
+        while (true) {
+            val generation = current.get()
+            if (generation.retain()) return generation
+            // Released between get() and retain(): either swapped out, so retry, or closed
+            check(current.get() !== generation) { "ModelEngine is closed" }
+        }
+    }
+
+    private inline fun <T> withBackend(block: (TfliteBackend) -> T): T {
+        val generation = lease()
+        try {
+            return block(generation.backend)
+        } finally {
+            generation.release()
+        }
+    }
+
+    /**
+     * Releases the native interpreters once no analysis uses them any more. The engine is
+     * unusable afterwards.
+     */
+    override fun close() {
+        val generation = synchronized(this) {
+            if (closed) return
+            closed = true
+            current.get()
+        }
+        generation.release()
+    }
+
+    companion object {
+        // Labels (Maize=0, Rice=1, Soybean=2, Sugarcane=3)
+        @JvmField
+        val CROP_LABELS = InferenceBackend.CROP_LABELS
+
+        private fun load(context: Context, config: EngineConfig): TfliteBackend {
+            // An installed release replaces the assets; the mapped model is shared by every interpreter
+            val installed = ModelStore(context).mapInstalled()
+            val barrenModel = installed?.barren ?: FileUtil.loadMappedFile(context, config.barrenModelAsset)
+            val cropModel = installed?.crop ?: FileUtil.loadMappedFile(context, config.cropModelAsset)
+
+            val tuned = tunedConfig(config) {
+                EngineTuner.tuningFor(context, config, installed?.release, barrenModel, cropModel)
+            }
+            // A release is named by its checksums, so its models are not hashed again here
+            return TfliteBackend(barrenModel, cropModel, tuned, installed?.modelIdentity)
+        }
+
+        /**
+         * [requested] with the tuning [tune] returns for the models being loaded, if it asks for
+         * [EngineConfig.autoTune] and has no explicit tuning. Untuned until the background
+         * benchmark of a main-thread load has finished.
+         */
+        internal fun tunedConfig(requested: EngineConfig, tune: () -> EngineTuning?): EngineConfig {
+            if (!requested.autoTune || requested.tuning != null) return requested
+            return tune()?.let { requested.copy(tuning = it).resolved() } ?: requested
+        }
+    }
+}
+
+/**
+ * One set of loaded models. The engine holds a reference while the generation is current and
+ * every analysis using it one more, so its interpreters close only after [ModelEngine.reload]
+ * has moved on and the last of those analyses has finished.
+ */
+internal class EngineGeneration(val backend: TfliteBackend) : Closeable {
+
+    private val refs = AtomicInteger(1)
+
+    /** Takes a reference, or returns false if the generation is already closed. */
+    fun retain(): Boolean {
+        while (true) {
+            val count = refs.get()
+            if (count == 0) return false
+            if (refs.compareAndSet(count, count + 1)) return true
+        }
+    }
+
+    fun release() {
+        if (refs.decrementAndGet() == 0) backend.close()
+    }
+
+    override fun close() = release()
+}
+
+//ModelStore.kt
+package com.example.cropanalysissdk
+
+import android.content.Context
+import android.util.Log
+import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.security.MessageDigest
+import java.util.Properties
+
+/**
+ * One published pair of models. Releases are ordered by [version]; checksums are SHA-256 in
+ * lowercase hex. File names are as the [ModelSource] knows them.
+ */
+data class ModelRelease(
+    val version: Long,
+    val barrenFile: String,
+    val barrenSha256: String,
+    val cropFile: String,
+    val cropSha256: String
+)
+
+/**
+ * Where new model releases come from, see [ModelStore.install].
+ */
+interface ModelSource {
+
+    /** The newest release on offer, or null if there is none. */
+    @Throws(IOException::class)
+    fun latest(): ModelRelease?
+
+    /** Opens [fileName] of [release]. */
+    @Throws(IOException::class)
+    fun open(release: ModelRelease, fileName: String): InputStream
+}
+
+/**
+ * [ModelSource] over a local directory that something else fills (a download, a sideload, a
+ * managed-device push): the two model files plus a [MANIFEST] like
+ *
+ * ```
+ * version=7
+ * barren=barren_vs_crop_model_v4.tflite
+ * barren.sha256=3f5c…
+ * crop=phase1_model_v2.tflite
+ * crop.sha256=91ab…
+ * ```
+ */
+class DirectoryModelSource(private val directory: File) : ModelSource {
+
+    override fun latest(): ModelRelease? {
+        val manifest = File(directory, MANIFEST)
+        if (!manifest.isFile) return null
+        return readRelease(manifest)
+    }
+
+    override fun open(release: ModelRelease, fileName: String): InputStream {
+        // Names come from the manifest; keep them inside the directory
+        val file = File(directory, fileName)
+        if (file.canonicalFile.parentFile != directory.canonicalFile) throw IOException("Invalid model file name $fileName")
+        return FileInputStream(file)
+    }
+
+    companion object {
+        const val MANIFEST = "release.properties"
+
+        @Throws(IOException::class)
+        internal fun readRelease(manifest: File): ModelRelease {
+            val properties = Properties()
+            FileInputStream(manifest).use { properties.load(it) }
+            fun field(name: String): String =
+                properties.getProperty(name)?.trim()?.takeIf { it.isNotEmpty() } ?: throw IOException("${manifest.name}: missing $name")
+
+            val version = field("version").toLongOrNull()?.takeIf { it > 0 } ?: throw IOException("${manifest.name}: bad version")
+            return ModelRelease(
+                version,
+                field("barren"), field("barren.sha256").lowercase(),
+                field("crop"), field("crop.sha256").lowercase()
+            )
+        }
+
+        internal fun writeRelease(manifest: File, release: ModelRelease) {
+            val properties = Properties().apply {
+                setProperty("version", release.version.toString())
+                setProperty("barren", release.barrenFile)
+                setProperty("barren.sha256", release.barrenSha256)
+                setProperty("crop", release.cropFile)
+                setProperty("crop.sha256", release.cropSha256)
+            }
+            manifest.outputStream().use { properties.store(it, null) }
+        }
+    }
+}
+
+/**
+ * Versioned models in app-private storage. Once a release is installed, [ModelEngine] loads it
+ * instead of the APK assets named in [EngineConfig]; [reset] goes back to the assets.
+ *
+ * Each release is copied into its own `crop_models/<version>/` directory and checked against
+ * its SHA-256 on the way in. The `current` file names the active release and is replaced by
+ * write-then-rename, so an install that dies half way leaves the previous release active. Loads
+ * memory-map the files and only hash them again if their size or modification time changed
+ * since they were verified; a release that fails the check is dropped and the assets are used
+ * instead.
+ */
+class ModelStore(context: Context) {
+
+    private val TAG = "ModelStore"
+
+    private val root = File(context.filesDir, "crop_models")
+    private val pointer = File(root, "current")
+
+    /**
+     * The active release, or null when the engine uses the assets.
+     */
+    val installed: ModelRelease?
+        get() = synchronized(LOCK) { currentDirectory()?.let { readInstalled(it) } }
+
+    /**
+     * Copies the newest release from [source] into the store and makes it active, if it is
+     * newer than the active one. Blocks on file I/O; call it off the main thread. Running
+     * engines keep their models until [ModelEngine.reload].
+     *
+     * @return the installed release, or null if [source] had nothing newer
+     * @throws IOException if a file cannot be copied or fails its checksum; the active release
+     * is left as it was
+     */
+    @Throws(IOException::class)
+    fun install(source: ModelSource): ModelRelease? {
+        synchronized(LOCK) {
+            return installLocked(source)
+        }
+    }
+
+    private fun installLocked(source: ModelSource): ModelRelease? {
+        val release = source.latest() ?: return null
+        if (release.version <= (installed?.version ?: 0L)) return null
+
+        val staging = File(root, "${release.version}$STAGING_SUFFIX")
+        val target = File(root, release.version.toString())
+        staging.deleteRecursively()
+        if (!staging.mkdirs()) throw IOException("Cannot create $staging")
+        try {
+            copyVerified(source, release, release.barrenFile, release.barrenSha256, File(staging, BARREN_FILE))
+            copyVerified(source, release, release.cropFile, release.cropSha256, File(staging, CROP_FILE))
+            DirectoryModelSource.writeRelease(File(staging, DirectoryModelSource.MANIFEST), release)
+            writeStamps(staging)
+
+            target.deleteRecursively()
+            if (!staging.renameTo(target)) throw IOException("Cannot move $staging into place")
+        } catch (e: IOException) {
+            staging.deleteRecursively()
+            throw e
+        }
+
+        writePointer(release.version)
+        prune(release.version)
+        Log.i(TAG, "Installed model release ${release.version}")
+        return release
+    }
+
+    /**
+     * Deactivates and deletes every installed release; the next load uses the assets again.
+     */
+    fun reset() {
+        synchronized(LOCK) {
+            pointer.delete()
+            prune(NO_RELEASE)
+        }
+    }
+
+    /**
+     * Maps the active release's models read-only. A file that changed since it was verified is
+     * checked against its checksum again first.
+     *
+     * @return null when no release is active or it fails the check (it is then dropped)
+     */
+    internal fun mapInstalled(): InstalledModels? {
+        synchronized(LOCK) {
+            return mapInstalledLocked()
+        }
+    }
+
+    private fun mapInstalledLocked(): InstalledModels? {
+        val directory = currentDirectory() ?: return null
+        val release = readInstalled(directory) ?: return null
+        try {
+            val stamps = readStamps(directory)
+            val unverified = MODEL_FILES.filter { stamps.getProperty(it) != stamp(File(directory, it)) }
+
+            val barren = map(File(directory, BARREN_FILE))
+            val crop = map(File(directory, CROP_FILE))
+            if (BARREN_FILE in unverified) verify(barren, release.barrenSha256, BARREN_FILE)
+            if (CROP_FILE in unverified) verify(crop, release.cropSha256, CROP_FILE)
+            if (unverified.isNotEmpty()) writeStamps(directory)
+            return InstalledModels(release, barren, crop)
+        } catch (e: IOException) {
+            Log.w(TAG, "Model release ${release.version} is unusable, falling back to assets", e)
+            pointer.delete()
+            directory.deleteRecursively()
+            return null
+        }
+    }
+
+    private fun currentDirectory(): File? {
+        if (!pointer.isFile) return null
+        val version = try {
+            pointer.readText().trim().toLong()
+        } catch (e: Exception) {
+            Log.w(TAG, "Unreadable model pointer", e)
+            return null
+        }
+        return File(root, version.toString()).takeIf { it.isDirectory }
+    }
+
+    private fun readInstalled(directory: File): ModelRelease? {
+        return try {
+            DirectoryModelSource.readRelease(File(directory, DirectoryModelSource.MANIFEST))
+        } catch (e: IOException) {
+            Log.w(TAG, "Unreadable manifest in $directory", e)
+            null
+        }
+    }
+
+    private fun copyVerified(source: ModelSource, release: ModelRelease, name: String, sha256: String, target: File) {
+        val digest = MessageDigest.getInstance("SHA-256")
+        source.open(release, name).use { input ->
+            target.outputStream().use { output ->
+                val buffer = ByteArray(COPY_BUFFER)
+                while (true) {
+                    val read = input.read(buffer)
+                    if (read < 0) break
+                    digest.update(buffer, 0, read)
+                    output.write(buffer, 0, read)
+                }
+                output.fd.sync()
+            }
+        }
+        val actual = hex(digest.digest())
+        if (actual != sha256) throw IOException("Checksum mismatch for $name: expected $sha256, got $actual")
+    }
+
+    private fun map(file: File): ByteBuffer =
+        FileInputStream(file).channel.use { it.map(FileChannel.MapMode.READ_ONLY, 0, it.size()) }
+
+    private fun verify(mapped: ByteBuffer, sha256: String, name: String) {
+        val digest = MessageDigest.getInstance("SHA-256")
+        digest.update(mapped.duplicate())
+        val actual = hex(digest.digest())
+        if (actual != sha256) throw IOException("Checksum mismatch for $name")
+    }
+
+    // Size and modification time of each model file as last verified
+    private fun readStamps(directory: File): Properties {
+        val properties = Properties()
+        val file = File(directory, STAMPS_FILE)
+        if (file.isFile) FileInputStream(file).use { properties.load(it) }
+        return properties
+    }
+
+    private fun writeStamps(directory: File) {
+        val properties = Properties()
+        MODEL_FILES.forEach { properties.setProperty(it, stamp(File(directory, it))) }
+        File(directory, STAMPS_FILE).outputStream().use { properties.store(it, null) }
+    }
+
+    private fun stamp(file: File): String = "${file.length()}:${file.lastModified()}"
+
+    private fun writePointer(version: Long) {
+        val temp = File(root, "current$STAGING_SUFFIX")
+        temp.outputStream().use { output ->
+            output.write(version.toString().toByteArray())
+            output.fd.sync()
+        }
+        if (!temp.renameTo(pointer)) throw IOException("Cannot activate model release $version")
+    }
+
+    // Engines that still run an older release keep their mapping; only the files go
+    private fun prune(keep: Long) {
+        root.listFiles()?.forEach { file ->
+            if (file.isDirectory && file.name != keep.toString()) file.deleteRecursively()
+        }
+    }
+
+    companion object {
+        private const val BARREN_FILE = "barren.tflite"
+        private const val CROP_FILE = "crop.tflite"
+        private val MODEL_FILES = listOf(BARREN_FILE, CROP_FILE)
+        private const val STAMPS_FILE = "verified.properties"
+        private const val STAGING_SUFFIX = ".tmp"
+        private const val COPY_BUFFER = 64 * 1024
+        private const val NO_RELEASE = 0L
+
+        // One store per app; instances are cheap views of the same files
+        private val LOCK = Any()
+
+        private fun hex(bytes: ByteArray): String = bytes.joinToString("") { "%02x".format(it) }
+    }
+}
+
+/**
+ * An installed release mapped for loading.
+ */
+internal class InstalledModels(val release: ModelRelease, val barren: ByteBuffer, val crop: ByteBuffer) {
+
+    /** Names the models by release and checksum, see [TfliteBackend.modelVersion]. */
+    val modelIdentity: String
+        get() = "release%d/barren@%s/crop@%s".format(
+            release.version, release.barrenSha256.take(16), release.cropSha256.take(16)
+        )
+}
+
+//TfliteBackend.kt
+package com.example.cropanalysissdk
+
+import org.tensorflow.lite.Interpreter
+import java.io.Closeable
+import java.nio.ByteBuffer
+
+/**
+ * Runs the barren and crop models from already-loaded model buffers, using only the TFLite Java
+ * API. [ModelEngine] feeds it the APK assets; the headless JVM runner feeds it files from disk.
+ *
+ * Each model has a pool of [ModelSession]s sized by [EngineConfig.interpreterPoolSize]; a call
+ * borrows one session for its duration, so up to that many calls can run concurrently.
+ *
+ * @param modelIdentity names the models in [modelVersion] instead of the asset names and content
+ * hashes; [ModelEngine] passes the [ModelStore] release it loaded
+ */
+class TfliteBackend internal constructor(
+    barrenModel: ByteBuffer,
+    cropModel: ByteBuffer,
+    config: EngineConfig,
+    modelIdentity: String?
+) : InferenceBackend, Closeable {
+
+    @JvmOverloads
+    constructor(barrenModel: ByteBuffer, cropModel: ByteBuffer, config: EngineConfig = EngineConfig()) :
+        this(barrenModel, cropModel, config, null)
+
+    /** The [EngineConfig] this backend was built with, after [EngineConfig.resolved]. */
+    val config: EngineConfig = config.resolved()
+
+    private val barrenSessions: SessionPool
+    private val cropSessions: SessionPool
+
+    private val cropLabels = InferenceBackend.CROP_LABELS
+
+    /**
+     * Low-memory mode, set per analysis from [CropMemory.isLowMemory]: batches run in chunks of
+     * at most [LOW_MEMORY_BATCH] cells and session buffers shrink to that size.
+     */
+    @Volatile
+    internal var lowMemory = false
+
+    private val retainedBatch: Int
+        get() = if (lowMemory) LOW_MEMORY_BATCH else Int.MAX_VALUE
+
+    /**
+     * Identifies the exact model files in use (name from [EngineConfig] + content hash, or the
+     * [ModelStore] release and its checksums); part of every cache key.
+     */
+    override val modelVersion: String
+
+    init {
+        val resolved = this.config
+        val barrenOptions = interpreterOptions(resolved.tuning?.barren, resolved)
+        val cropOptions = interpreterOptions(resolved.tuning?.crop, resolved)
+
+        // The mapped model is shared by every interpreter.
+        // Quantized variants are detected from their tensor types, see ModelSession.
+        // Accelerators can round differently, so a tuned engine gets its own cache entries.
+        // FP16 only counts where a delegate actually applies it.
+        val fp16 = usesFp16(resolved.tuning?.barren, resolved) || usesFp16(resolved.tuning?.crop, resolved)
+        val models = modelIdentity ?: "%s@%016x/%s@%016x".format(
+            resolved.barrenModelAsset, ContentHash.of(barrenModel),
+            resolved.cropModelAsset, ContentHash.of(cropModel)
+        )
+        modelVersion = "%s/fp16=%b".format(models, fp16) + (resolved.tuning?.let { "/%s,%s".format(it.barren.accelerator, it.crop.accelerator) } ?: "")
+
+        barrenSessions = SessionPool(List(resolved.interpreterPoolSize) { barrenSession(barrenModel, barrenOptions) })
+        cropSessions = SessionPool(List(resolved.interpreterPoolSize) { cropSession(cropModel, cropOptions) })
+    }
+
+    /**
+     * 🔴 FIXED: Corrected barren detection logic to match Python/Streamlit
+     *
+     * Barren Model Output Interpretation:
+     * - prob > 0.5  → Non-Barren (CROP present)
+     * - prob ≤ 0.5  → Barren land
+     *
+     * @return Pair(isBarren: Boolean, confidence: Float)
+     */
+    override fun isBarren(image: ImagePixels): Pair<Boolean, Float> = isBarren(image, null)
+
+    internal fun isBarren(image: ImagePixels, timer: StageTimer?): Pair<Boolean, Float> {
+        val session = barrenSessions.acquire()
+        try {
+            timer.time(PipelineStage.PREPROCESS) {
+                session.prepare(1, retainedBatch)
+                session.load(0, image, image.fullRegion)
+            }
+            timer.time(PipelineStage.BARREN_INFERENCE) { session.invoke(1) }
+
+            return interpretBarrenProb(session.score(0, 0))
+        } finally {
+            barrenSessions.release(session)
+        }
+    }
+
+    /**
+     * Batched variant of [isBarren]: every region of [image] goes through the barren model in
+     * a single [Interpreter.run] with the input resized to [N, 224, 224, 3].
+     *
+     * @return one Pair(isBarren, confidence) per region, in input order
+     */
+    override fun isBarrenBatch(image: ImagePixels, regions: List<GridRegion>): List<Pair<Boolean, Float>> =
+        isBarrenBatch(image, regions, null)
+
+    internal fun isBarrenBatch(image: ImagePixels, regions: List<GridRegion>, timer: StageTimer?): List<Pair<Boolean, Float>> {
+        if (regions.isEmpty()) return emptyList()
+        val retained = retainedBatch
+        if (regions.size > retained) return regions.chunked(retained).flatMap { isBarrenBatch(image, it, timer) }
+
+        val session = barrenSessions.acquire()
+        try {
+            timer.time(PipelineStage.PREPROCESS) {
+                session.prepare(regions.size, retained)
+                for (i in regions.indices) session.load(i, image, regions[i])
+            }
+            timer.time(PipelineStage.BARREN_INFERENCE) { session.invoke(regions.size) }
+
+            return List(regions.size) { interpretBarrenProb(session.score(it, 0)) }
+        } finally {
+            barrenSessions.release(session)
+        }
+    }
+
+    /**
+     * Classifies the crop type.
+     *
+     * @return Pair(cropName: String, confidence: Float)
+     */
+    override fun classifyCrop(image: ImagePixels): Pair<String, Float> = classifyCrop(image, null)
+
+    internal fun classifyCrop(image: ImagePixels, timer: StageTimer?): Pair<String, Float> {
+        val session = cropSessions.acquire()
+        try {
+            timer.time(PipelineStage.PREPROCESS) {
+                session.prepare(1, retainedBatch)
+                session.load(0, image, image.fullRegion)
+            }
+            timer.time(PipelineStage.CROP_INFERENCE) { session.invoke(1) }
+
+            return interpretCropScores(session, 0)
+        } finally {
+            cropSessions.release(session)
+        }
+    }
+
+    /**
+     * Batched variant of [classifyCrop]: one [Interpreter.run] over [N, 260, 260, 3].
+     *
+     * @return one Pair(cropName, confidence) per region, in input order
+     */
+    override fun classifyCropBatch(image: ImagePixels, regions: List<GridRegion>): List<Pair<String, Float>> =
+        classifyCropBatch(image, regions, null)
+
+    internal fun classifyCropBatch(image: ImagePixels, regions: List<GridRegion>, timer: StageTimer?): List<Pair<String, Float>> {
+        if (regions.isEmpty()) return emptyList()
+        val retained = retainedBatch
+        if (regions.size > retained) return regions.chunked(retained).flatMap { classifyCropBatch(image, it, timer) }
+
+        val session = cropSessions.acquire()
+        try {
+            timer.time(PipelineStage.PREPROCESS) {
+                session.prepare(regions.size, retained)
+                for (i in regions.indices) session.load(i, image, regions[i])
+            }
+            timer.time(PipelineStage.CROP_INFERENCE) { session.invoke(regions.size) }
+
+            return List(regions.size) { interpretCropScores(session, it) }
+        } finally {
+            cropSessions.release(session)
+        }
+    }
+
+    /**
+     * [classifyCropBatch] that copies every class score of region i into row `cells[i]` of
+     * [matrix], without building a result per region.
+     */
+    override fun classifyCropBatch(image: ImagePixels, regions: List<GridRegion>, matrix: VoteMatrix, cells: List<Int>) =
+        classifyCropBatch(image, regions, timer = null, matrix = matrix, cells = cells)
+
+    internal fun classifyCropBatch(image: ImagePixels, regions: List<GridRegion>, timer: StageTimer?, matrix: VoteMatrix, cells: List<Int>) {
+        if (regions.isEmpty()) return
+        val retained = retainedBatch
+        if (regions.size > retained) {
+            for (start in regions.indices step retained) {
+                val end = minOf(start + retained, regions.size)
+                classifyCropBatch(image, regions.subList(start, end), timer, matrix, cells.subList(start, end))
+            }
+            return
+        }
+
+        val session = cropSessions.acquire()
+        try {
+            timer.time(PipelineStage.PREPROCESS) {
+                session.prepare(regions.size, retained)
+                for (i in regions.indices) session.load(i, image, regions[i])
+            }
+            timer.time(PipelineStage.CROP_INFERENCE) { session.invoke(regions.size) }
+
+            for (i in regions.indices) {
+                val cell = cells[i]
+                for (cls in cropLabels.indices) matrix.set(cell, cls, session.score(i, cls))
+                matrix.complete(cell)
+            }
+        } finally {
+            cropSessions.release(session)
+        }
+    }
+
+    /**
+     * Runs one throwaway inference per interpreter of both models so the first real photo does
+     * not pay for tensor allocation and kernel setup. Blocks; call it off the main thread.
+     */
+    fun warmUp() {
+        val blank = ImagePixels(CROP_INPUT_SIZE, CROP_INPUT_SIZE, IntArray(CROP_INPUT_SIZE * CROP_INPUT_SIZE))
+        for (pool in listOf(barrenSessions, cropSessions)) {
+            pool.forEach { session ->
+                session.prepare(1)
+                session.load(0, blank, blank.fullRegion)
+                session.invoke(1)
+            }
+        }
+    }
+
+    /**
+     * Releases the native interpreters. No call may be in flight, and the engine is unusable
+     * afterwards.
+     */
+    override fun close() {
+        barrenSessions.close()
+        cropSessions.close()
+    }
+
+    private fun interpretBarrenProb(prob: Float): Pair<Boolean, Float> {
+        // Safety: If NaN, assume Crop (safer fallback)
+        if (prob.isNaN()) return Pair(false, 0.5f)
+
+        // 🔴 CORRECTED LOGIC:
         // prob > 0.5 means CROP (non-barren)
         // prob ≤ 0.5 means BARREN
         val isCrop = prob > 0.5f
         val isBarren = !isCrop
 
-        // Confidence = distance from decision boundary
-        val confidence = if (isCrop) prob else (1.0f - prob)
+        // Confidence = distance from decision boundary
+        val confidence = if (isCrop) prob else (1.0f - prob)
+
+        return Pair(isBarren, confidence)
+    }
+
+    /**
+     * Argmax over one row of the crop model's output.
+     */
+    private fun interpretCropScores(session: ModelSession, row: Int): Pair<String, Float> {
+        var maxIdx = -1
+        var maxProb = -1.0f
+
+        for (i in cropLabels.indices) {
+            val p = session.score(row, i)
+            // NaN Safety
+            if (p.isNaN()) continue
+
+            if (p > maxProb) {
+                maxProb = p
+                maxIdx = i
+            }
+        }
+
+        return if (maxIdx != -1 && maxProb > 0.0f) {
+            Pair(cropLabels[maxIdx], maxProb)
+        } else {
+            Pair("Unknown", 0f)
+        }
+    }
+
+    companion object {
+        private const val BARREN_INPUT_SIZE = 224
+        private const val CROP_INPUT_SIZE = 260
+
+        /** Most cells per model call in low-memory mode, about 2.4 MB of float crop input. */
+        const val LOW_MEMORY_BATCH = 3
+
+        // Barren model was trained on 0-1 inputs
+        internal fun barrenSession(model: ByteBuffer, options: Interpreter.Options): ModelSession =
+            ModelSession(Interpreter(model, options), BARREN_INPUT_SIZE, 1, 1f / 255f)
+
+        // NO NORMALIZATION: Input stays 0-255 (model has internal preprocessing)
+        internal fun cropSession(model: ByteBuffer, options: Interpreter.Options): ModelSession =
+            ModelSession(Interpreter(model, options), CROP_INPUT_SIZE, InferenceBackend.CROP_LABELS.size, 1f)
+
+        /**
+         * Interpreter options for one model: [settings] if tuned, otherwise
+         * [EngineConfig.threadsPerInterpreter] with TFLite's default kernels.
+         */
+        internal fun interpreterOptions(settings: InterpreterSettings?, config: EngineConfig): Interpreter.Options {
+            return Interpreter.Options().apply {
+                numThreads = settings?.threads ?: config.threadsPerInterpreter
+                when (settings?.accelerator) {
+                    Accelerator.CPU -> setUseXNNPACK(false)
+                    Accelerator.XNNPACK -> setUseXNNPACK(true)
+                    Accelerator.NNAPI -> setUseNNAPI(true)
+                    null -> {}
+                }
+                // Lets NNAPI run float models in FP16 (opt-in, slightly lossy)
+                if (usesFp16(settings, config)) {
+                    @Suppress("DEPRECATION")
+                    setAllowFp16PrecisionForFp32(true)
+                }
+            }
+        }
+
+        // Only the NNAPI delegate honours the FP16 flag; the CPU and XNNPACK kernels ignore it
+        private fun usesFp16(settings: InterpreterSettings?, config: EngineConfig): Boolean =
+            config.reducedPrecision && settings?.accelerator == Accelerator.NNAPI
+    }
+}
+
+//ModelSession.kt
+package com.example.cropanalysissdk
+
+import org.tensorflow.lite.DataType
+import org.tensorflow.lite.Interpreter
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * One interpreter plus the direct input/output buffers it needs per call.
+ *
+ * Buffers are sized for the largest batch seen so far and reused afterwards. TFLite requires a
+ * ByteBuffer whose capacity matches the tensor exactly, so each batch size gets a cached
+ * zero-copy view into the shared backing store. Not thread-safe.
+ *
+ * The input and output tensor types are read from the model: FLOAT32 models get normalized
+ * floats, UINT8/INT8 models get quantized codes written directly and their outputs are
+ * dequantized in [score].
+ *
+ * @param inputScale multiplier applied to 0-255 channel values while filling the input
+ */
+internal class ModelSession(
+    private val interpreter: Interpreter,
+    private val inputSize: Int,
+    private val outputWidth: Int,
+    private val inputScale: Float
+) {
+
+    private val inputType = interpreter.getInputTensor(0).dataType()
+    private val inputQuant = interpreter.getInputTensor(0).quantizationParams()
+    private val outputType = interpreter.getOutputTensor(0).dataType()
+    private val outputQuantScale = interpreter.getOutputTensor(0).quantizationParams().scale
+    private val outputZeroPoint = interpreter.getOutputTensor(0).quantizationParams().zeroPoint
+
+    private val cellBytes = inputSize * inputSize * 3 * inputType.byteSize()
+    private val outputBytes = outputType.byteSize()
+
+    private var currentBatch = interpreter.getInputTensor(0).shape()[0]
+    private var batchCapacity = 0
+
+    private var inputStore: ByteBuffer = ByteBuffer.allocateDirect(0)
+    private var outputStore: ByteBuffer = ByteBuffer.allocateDirect(0)
+    private var inputViews = arrayOfNulls<ByteBuffer>(1)
+    private var outputViews = arrayOfNulls<ByteBuffer>(1)
+
+    private var output: ByteBuffer = outputStore
+
+    init {
+        require(inputType == DataType.FLOAT32 || inputType == DataType.UINT8 || inputType == DataType.INT8) {
+            "Unsupported model input type $inputType"
+        }
+        require(outputType == DataType.FLOAT32 || outputType == DataType.UINT8 || outputType == DataType.INT8) {
+            "Unsupported model output type $outputType"
+        }
+    }
+
+    val isQuantized: Boolean
+        get() = inputType != DataType.FLOAT32
+
+    /**
+     * Makes sure the backing buffers can hold [batch] cells. Only allocates when a larger
+     * batch than ever before is requested, or to shrink buffers holding more than
+     * [maxRetained] cells back to [batch] (low-memory mode).
+     */
+    fun prepare(batch: Int, maxRetained: Int = Int.MAX_VALUE) {
+        if (batch <= batchCapacity && batchCapacity <= maxOf(batch, maxRetained)) return
+
+        batchCapacity = batch
+        inputStore = ByteBuffer.allocateDirect(batch * cellBytes).order(ByteOrder.nativeOrder())
+        outputStore = ByteBuffer.allocateDirect(batch * outputWidth * outputBytes).order(ByteOrder.nativeOrder())
+        inputViews = arrayOfNulls(batch + 1)
+        outputViews = arrayOfNulls(batch + 1)
+    }
+
+    /**
+     * Resizes and normalizes [region] of [image] straight into batch slot [slot].
+     */
+    fun load(slot: Int, image: ImagePixels, region: GridRegion) {
+        inputStore.position(slot * cellBytes)
+        if (inputType == DataType.FLOAT32) {
+            TensorPreprocessor.writeRegion(image, region, inputSize, inputScale, inputStore)
+        } else {
+            TensorPreprocessor.writeRegionQuantized(
+                image, region, inputSize, inputScale,
+                inputQuant.scale, inputQuant.zeroPoint, inputType == DataType.INT8, inputStore
+            )
+        }
+    }
+
+    /**
+     * Runs the model over the first [batch] slots. Results stay readable through [score]
+     * until the next call.
+     */
+    fun invoke(batch: Int) {
+        if (currentBatch != batch) {
+            interpreter.resizeInput(0, intArrayOf(batch, inputSize, inputSize, 3))
+            interpreter.allocateTensors()
+            currentBatch = batch
+        }
+
+        val input = inputViews[batch] ?: view(inputStore, batch * cellBytes).also { inputViews[batch] = it }
+        output = outputViews[batch] ?: view(outputStore, batch * outputWidth * outputBytes).also { outputViews[batch] = it }
+
+        input.rewind()
+        output.rewind()
+        interpreter.run(input, output)
+    }
+
+    /**
+     * Output value at [row], [col], dequantized for integer models.
+     */
+    fun score(row: Int, col: Int): Float {
+        val i = (row * outputWidth + col) * outputBytes
+        return when (outputType) {
+            DataType.UINT8 -> ((output.get(i).toInt() and 0xFF) - outputZeroPoint) * outputQuantScale
+            DataType.INT8 -> (output.get(i) - outputZeroPoint) * outputQuantScale
+            else -> output.getFloat(i)
+        }
+    }
+
+    fun close() {
+        interpreter.close()
+    }
+
+    private fun view(store: ByteBuffer, bytes: Int): ByteBuffer {
+        val window = store.duplicate()
+        window.position(0)
+        window.limit(bytes)
+        // slice() drops the byte order, so restore it for getFloat()
+        return window.slice().order(ByteOrder.nativeOrder())
+    }
+}
+
+//SessionPool.kt
+package com.example.cropanalysissdk
+
+import java.util.concurrent.ArrayBlockingQueue
+
+/**
+ * Fixed set of interchangeable [ModelSession]s for one model. [acquire] blocks until a session
+ * is free, which keeps each interpreter on a single thread at a time.
+ */
+internal class SessionPool(sessions: List<ModelSession>) {
+
+    private val size = sessions.size
+    private val idle = ArrayBlockingQueue<ModelSession>(sessions.size, false, sessions)
+
+    fun acquire(): ModelSession = idle.take()
+
+    fun release(session: ModelSession) {
+        idle.put(session)
+    }
+
+    /**
+     * Runs [action] on every session in turn, waiting for borrowed ones to come back first.
+     */
+    fun forEach(action: (ModelSession) -> Unit) {
+        val all = List(size) { idle.take() }
+        try {
+            all.forEach(action)
+        } finally {
+            all.forEach { idle.put(it) }
+        }
+    }
+
+    /**
+     * Closes every session. Callers must have released them all; nothing may acquire afterwards.
+     */
+    fun close() {
+        repeat(size) { idle.take().close() }
+    }
+}
+
+//EngineTuner.kt
+package com.example.cropanalysissdk
+
+import android.content.Context
+import android.content.SharedPreferences
+import android.os.Build
+import android.os.Looper
+import android.os.SystemClock
+import android.util.Log
+import org.tensorflow.lite.Interpreter
+import java.nio.ByteBuffer
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Finds the fastest [InterpreterSettings] for each model on this device and remembers them.
+ *
+ * The first [EngineConfig.autoTune] load benchmarks every candidate: 1, 2, 4 and all available
+ * threads, each with XNNPACK and with the built-in kernels, plus NNAPI on API 27+. Candidates
+ * that fail to load are skipped. The winner is stored in SharedPreferences per model set (the
+ * [ModelStore] release if one is installed, otherwise the assets), pool size and precision,
+ * and is reused until the app or the OS is updated. [override] pins a choice instead, which
+ * survives those updates; [reset] forgets everything so the next load benchmarks again.
+ *
+ * A load on the main thread never waits for the benchmark: it runs on a background thread and
+ * the result applies from the next load.
+ */
+object EngineTuner {
+
+    private const val TAG = "EngineTuner"
+    private const val PREFS = "crop_sdk_engine_tuning"
+    private const val KEY_STAMP = "stamp"
+    private const val OVERRIDE_PREFIX = "override:"
+
+    // Timed invocations per candidate after one warm-up; the median counts
+    private const val TIMED_RUNS = 5
+
+    // Benchmark input; the models resize it, so only its content matters
+    private const val TUNING_IMAGE_SIDE = 64
+    private const val FIELD_GREEN = 0xFF4A7A2E.toInt()
+
+    // Keys being benchmarked in the background, so repeated main-thread loads start one run
+    private val pending = ConcurrentHashMap.newKeySet<String>()
+
+    /**
+     * The tuning later [EngineConfig.autoTune] loads of [config] will use, or null if none has
+     * been measured or set yet.
+     */
+    @JvmStatic
+    fun current(context: Context, config: EngineConfig): EngineTuning? {
+        return stored(prefs(context), key(config.resolved(), ModelStore(context).installed))
+    }
+
+    /**
+     * Pins [tuning] for [config] and the models now active on this device; takes effect on
+     * the next engine load.
+     */
+    @JvmStatic
+    fun override(context: Context, config: EngineConfig, tuning: EngineTuning) {
+        val key = key(config.resolved(), ModelStore(context).installed)
+        prefs(context).edit().putString(OVERRIDE_PREFIX + key, encode(tuning)).apply()
+    }
+
+    /**
+     * Forgets all stored tunings.
+     */
+    @JvmStatic
+    fun reset(context: Context) {
+        context.getSharedPreferences(PREFS, Context.MODE_PRIVATE).edit().clear().apply()
+    }
+
+    /**
+     * Stored tuning for [config] and [release] (null for the assets), benchmarking [barrenModel]
+     * and [cropModel] first if there is none. That takes a few seconds: off the main thread the
+     * caller waits for it, on the main thread it starts in the background instead.
+     *
+     * @return null if nothing is stored yet and the benchmark runs in the background
+     */
+    internal fun tuningFor(
+        context: Context,
+        config: EngineConfig,
+        release: ModelRelease?,
+        barrenModel: ByteBuffer,
+        cropModel: ByteBuffer
+    ): EngineTuning? {
+        val prefs = prefs(context)
+        val key = key(config, release)
+        stored(prefs, key)?.let { return it }
+
+        if (Looper.myLooper() != Looper.getMainLooper()) return tune(prefs, key, config, barrenModel, cropModel)
+
+        if (pending.add(key)) {
+            Thread({
+                try {
+                    tune(prefs, key, config, barrenModel, cropModel)
+                } finally {
+                    pending.remove(key)
+                }
+            }, "CropSDK-tuner").apply { isDaemon = true }.start()
+        }
+        return null
+    }
+
+    private fun tune(
+        prefs: SharedPreferences,
+        key: String,
+        config: EngineConfig,
+        barrenModel: ByteBuffer,
+        cropModel: ByteBuffer
+    ): EngineTuning {
+        val startTime = SystemClock.elapsedRealtime()
+        val tuning = EngineTuning(
+            fastest("barren", config) { TfliteBackend.barrenSession(barrenModel, it) },
+            fastest("crop", config) { TfliteBackend.cropSession(cropModel, it) }
+        )
+        Log.d(TAG, "Tuned in ${SystemClock.elapsedRealtime() - startTime}ms: $tuning")
+
+        prefs.edit().putString(key, encode(tuning)).apply()
+        return tuning
+    }
+
+    private fun fastest(
+        model: String,
+        config: EngineConfig,
+        newSession: (Interpreter.Options) -> ModelSession
+    ): InterpreterSettings {
+        var best: InterpreterSettings? = null
+        var bestNanos = Long.MAX_VALUE
+
+        for (candidate in candidates(config)) {
+            val nanos = try {
+                measure(newSession(TfliteBackend.interpreterOptions(candidate, config)))
+            } catch (e: RuntimeException) {
+                // e.g. NNAPI rejecting an op; the candidate simply does not qualify
+                Log.w(TAG, "$model: $candidate unavailable", e)
+                continue
+            }
+            Log.d(TAG, "$model: $candidate ${nanos / 1000}us")
+            if (nanos < bestNanos) {
+                best = candidate
+                bestNanos = nanos
+            }
+        }
+        return best ?: InterpreterSettings(config.threadsPerInterpreter, Accelerator.XNNPACK)
+    }
+
+    private fun candidates(config: EngineConfig): List<InterpreterSettings> {
+        val maxThreads = maxOf(1, Runtime.getRuntime().availableProcessors() / config.interpreterPoolSize)
+        val threads = listOf(1, 2, 4, maxThreads).filter { it <= maxThreads }.distinct()
+        val cpu = threads.flatMap { listOf(InterpreterSettings(it, Accelerator.XNNPACK), InterpreterSettings(it, Accelerator.CPU)) }
+        return if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1) cpu + InterpreterSettings(1, Accelerator.NNAPI) else cpu
+    }
+
+    /**
+     * Median time of one single-image inference. The grid runs batches, but relative speed
+     * between candidates is what matters and this keeps first-launch tuning short.
+     */
+    private fun measure(session: ModelSession): Long {
+        try {
+            val image = ImagePixels(TUNING_IMAGE_SIDE, TUNING_IMAGE_SIDE, IntArray(TUNING_IMAGE_SIDE * TUNING_IMAGE_SIDE) { FIELD_GREEN })
+            session.prepare(1)
+            session.load(0, image, image.fullRegion)
+            session.invoke(1)
+
+            val times = LongArray(TIMED_RUNS) {
+                val start = System.nanoTime()
+                session.invoke(1)
+                System.nanoTime() - start
+            }
+            times.sort()
+            return times[TIMED_RUNS / 2]
+        } finally {
+            session.close()
+        }
+    }
+
+    private fun prefs(context: Context): SharedPreferences {
+        val prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+        // New app or OS build: models, drivers and kernels may all have changed
+        val packageInfo = context.packageManager.getPackageInfo(context.packageName, 0)
+        val stamp = "${packageInfo.lastUpdateTime}|${Build.FINGERPRINT}"
+        if (prefs.getString(KEY_STAMP, null) != stamp) {
+            // Only the measurements are stale; pinned choices stay
+            val editor = prefs.edit()
+            prefs.all.keys.filterNot { it.startsWith(OVERRIDE_PREFIX) }.forEach { editor.remove(it) }
+            editor.putString(KEY_STAMP, stamp).apply()
+        }
+        return prefs
+    }
+
+    // An override wins over a measured tuning
+    private fun stored(prefs: SharedPreferences, key: String): EngineTuning? {
+        val value = prefs.getString(OVERRIDE_PREFIX + key, null) ?: prefs.getString(key, null)
+        return value?.let { decode(it) }
+    }
+
+    // A new release may have other ops or sizes, so it is tuned afresh
+    private fun key(config: EngineConfig, release: ModelRelease?): String {
+        val models = release?.let { "release=${it.version}" } ?: "${config.barrenModelAsset}|${config.cropModelAsset}"
+        return "$models|pool=${config.interpreterPoolSize}|fp16=${config.reducedPrecision}"
+    }
+
+    // "XNNPACK:2;CPU:4" = barren;crop
+    private fun encode(tuning: EngineTuning): String =
+        listOf(tuning.barren, tuning.crop).joinToString(";") { "${it.accelerator}:${it.threads}" }
+
+    private fun decode(value: String): EngineTuning? {
+        val settings = value.split(';').map { part ->
+            val fields = part.split(':')
+            if (fields.size != 2) return null
+            val accelerator = Accelerator.values().firstOrNull { it.name == fields[0] } ?: return null
+            val threads = fields[1].toIntOrNull() ?: return null
+            InterpreterSettings(threads, accelerator)
+        }
+        return if (settings.size == 2) EngineTuning(settings[0], settings[1]) else null
+    }
+}
+
+//SharedModelEngine.kt
+package com.example.cropanalysissdk
+
+import android.content.Context
+import android.os.SystemClock
+import android.util.Log
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+/**
+ * Process-wide [ModelEngine]. The application calls [preload] at launch so the models are mapped
+ * and warmed up on a background thread; screens then [acquire] the engine, build a [CropSDK]
+ * around it once the future completes, and [release] it when they go away.
+ *
+ * The engine stays loaded while unused so the next capture starts immediately. [close] frees the
+ * native interpreters as soon as no screen holds a reference; a later [preload] or [acquire]
+ * loads a fresh engine. [update] installs new models and hot-swaps them into the loaded engine.
+ */
+object SharedModelEngine {
+
+    private const val TAG = "SharedModelEngine"
+
+    private val loader: ExecutorService = Executors.newSingleThreadExecutor { task ->
+        Thread(task, "CropSDK-engine-init").apply { isDaemon = true }
+    }
+
+    private var ready: CompletableFuture<ModelEngine>? = null
+    private var refCount = 0
+    private var closeRequested = false
+
+    /**
+     * Starts loading the engine in the background if it is not loaded or loading already, and
+     * returns the future that completes once both models have run their warm-up inference.
+     * [config] only applies to the load this call starts.
+     */
+    @JvmStatic
+    @JvmOverloads
+    @Synchronized
+    fun preload(context: Context, config: EngineConfig = EngineConfig()): CompletableFuture<ModelEngine> {
+        closeRequested = false
+        ready?.let { if (!it.isCompletedExceptionally) return it }
+
+        val appContext = context.applicationContext
+        return CompletableFuture.supplyAsync({
+            val startTime = SystemClock.elapsedRealtime()
+            ModelEngine(appContext, config).also {
+                it.warmUp()
+                Log.d(TAG, "Engine ready in ${SystemClock.elapsedRealtime() - startTime}ms")
+            }
+        }, loader).also { ready = it }
+    }
+
+    /**
+     * Takes a reference on the engine, loading it if needed. Every call must be paired with
+     * one [release], whether or not the future completed.
+     */
+    @JvmStatic
+    @JvmOverloads
+    @Synchronized
+    fun acquire(context: Context, config: EngineConfig = EngineConfig()): CompletableFuture<ModelEngine> {
+        val future = preload(context, config)
+        refCount++
+        return future
+    }
+
+    @JvmStatic
+    @Synchronized
+    fun release() {
+        check(refCount > 0) { "release() without a matching acquire()" }
+        refCount--
+        if (refCount == 0 && closeRequested) closeNow()
+    }
+
+    /**
+     * Closes the engine now if nothing holds it, otherwise when the last holder releases it.
+     */
+    @JvmStatic
+    @Synchronized
+    fun close() {
+        closeRequested = true
+        if (refCount == 0) closeNow()
+    }
+
+    /**
+     * Installs a newer model release from [source] into [ModelStore] on the loader thread and,
+     * if the engine is loaded, swaps it in with [ModelEngine.reload]; screens keep their engine
+     * and analyses already running finish on the old models. An engine loaded later starts
+     * with the new release anyway.
+     *
+     * @return future of the installed release, or null if [source] had nothing newer
+     */
+    @JvmStatic
+    fun update(context: Context, source: ModelSource): CompletableFuture<ModelRelease?> {
+        val appContext = context.applicationContext
+        return CompletableFuture.supplyAsync({
+            val release = ModelStore(appContext).install(source)
+            // Loads run on this thread too, so a pending one has finished by now
+            val loaded = synchronized(this) { ready }?.takeIf { it.isDone && !it.isCompletedExceptionally }
+            if (release != null && loaded != null) {
+                try {
+                    loaded.join().reload(appContext)
+                } catch (e: IllegalStateException) {
+                    // Closed meanwhile; the next load starts with the new release
+                    Log.d(TAG, "Engine closed before the model swap")
+                }
+            }
+            release
+        }, loader)
+    }
+
+    private fun closeNow() {
+        val future = ready ?: return
+        ready = null
+        closeRequested = false
+        // If the load is still running, close the engine as soon as it finishes
+        future.thenAccept { it.close() }
+    }
+}
+
+//CascadePolicy.kt
+package com.example.cropanalysissdk
+
+/**
+ * Which models a grid cell goes through, and in what order ([AnalysisOptions.cascade]).
+ *
+ * A cell only becomes a detection if it is not barren and its crop score reaches
+ * [VotingRules.CONF_THRESH], so the barren verdict of a low-scoring cell is never used.
+ */
+enum class CascadePolicy {
+    /** Barren model on every cell, crop model on the non-barren ones (the original pipeline). */
+    BARREN_FIRST,
+
+    /**
+     * Crop model on every cell, barren model only on cells scoring at least
+     * [VotingRules.CONF_THRESH]. Same detections as [BARREN_FIRST]; low-scoring cells are
+     * reported as [CellStatus.LOW_CONFIDENCE] instead of [CellStatus.BARREN].
+     */
+    CROP_FIRST,
+
+    /**
+     * Decided per cell from the global barren verdict, the full-image prior and [RegionStats]:
+     * cells with hardly any green go barren-first, the rest crop-first, and the barren check is
+     * dropped where a confidently non-barren field shows a green cell, or where the cell
+     * confidently agrees with a confident full-image crop. Can accept a cell the barren model
+     * would have rejected.
+     */
+    ADAPTIVE
+}
+
+/**
+ * [CascadePolicy] decisions for one grid pass, made once the full-image pass is done.
+ */
+internal class CellCascade(
+    private val policy: CascadePolicy,
+    private val stats: RegionStats,
+    isGlobalBarren: Boolean,
+    barrenConf: Float,
+    private val fullCropName: String,
+    fullCropConf: Float
+) {
+
+    private val fieldIsGreen = !isGlobalBarren && barrenConf >= TRUST_FIELD_CONF
+    private val priorIsConfident = fullCropConf >= TRUST_PRIOR_CONF
+
+    /**
+     * True to run the barren model first and the crop model only if the cell is not barren.
+     */
+    fun barrenFirst(region: GridRegion): Boolean = when (policy) {
+        CascadePolicy.BARREN_FIRST -> true
+        CascadePolicy.CROP_FIRST -> false
+        CascadePolicy.ADAPTIVE -> stats.vegetationFraction(region) < LIKELY_BARE_VEGETATION
+    }
+
+    /**
+     * For a crop-first cell: whether its crop result still needs the barren verdict.
+     */
+    fun needsBarrenCheck(region: GridRegion, crop: String, conf: Float): Boolean {
+        if (conf < VotingRules.CONF_THRESH) return false
+        if (policy != CascadePolicy.ADAPTIVE) return true
+
+        if (priorIsConfident && crop == fullCropName && conf >= TRUST_PRIOR_CONF) return false
+        return !(fieldIsGreen && stats.vegetationFraction(region) >= TRUST_CELL_VEGETATION)
+    }
+
+    companion object {
+        // Below this share of green pixels the barren model usually says barren, so it goes first
+        private const val LIKELY_BARE_VEGETATION = 0.15f
+
+        // Global non-barren verdict and cell greenness that make the cell's barren check redundant
+        private const val TRUST_FIELD_CONF = 0.90f
+        private const val TRUST_CELL_VEGETATION = 0.50f
+
+        // Full-image crop and cell score at which an agreeing cell is taken as non-barren
+        private const val TRUST_PRIOR_CONF = 0.90f
+    }
+}
+
+//CostModel.kt
+package com.example.cropanalysissdk
+
+/**
+ * Online estimate of what inference costs on this device, learnt from the analyses themselves:
+ * exponentially weighted averages of the full-image pass (steps 1-2) and of one grid cell
+ * (barren + crop model). Cells are measured in wall time per batch, so parallel grid workers
+ * are accounted for.
+ */
+class CostModel {
+
+    private var fullPassNanos = 0.0
+    private var cellNanos = 0.0
+
+    /** Full-image pass in ms; 0 until the first analysis. */
+    val fullPassMs: Double
+        @Synchronized get() = fullPassNanos / 1e6
+
+    /** One grid cell in ms; 0 until the first grid pass. */
+    val cellMs: Double
+        @Synchronized get() = cellNanos / 1e6
+
+    @Synchronized
+    internal fun recordFullPass(nanos: Long) {
+        fullPassNanos = blend(fullPassNanos, nanos.toDouble())
+    }
+
+    @Synchronized
+    internal fun recordCells(nanos: Long, cells: Int) {
+        if (cells > 0) cellNanos = blend(cellNanos, nanos.toDouble() / cells)
+    }
+
+    /**
+     * Before any grid pass a cell is assumed to cost as much as the full-image pass: the same
+     * two models on a smaller region.
+     */
+    @Synchronized
+    internal fun cellEstimateNanos(): Double = if (cellNanos > 0) cellNanos else fullPassNanos
+
+    private fun blend(current: Double, sample: Double): Double =
+        if (current == 0.0) sample else current + ALPHA * (sample - current)
+
+    companion object {
+        // Weight of the newest sample; about the last 10 analyses matter
+        private const val ALPHA = 0.2
+    }
+}
+
+//EngineConfig.kt
+package com.example.cropanalysissdk
+
+/**
+ * Interpreter and model settings for [ModelEngine] and [CropSDK].
+ *
+ * With [interpreterPoolSize] > 1 the grid pass is spread over that many workers, each using its
+ * own interpreters with [threadsPerInterpreter] threads.
+ *
+ * [barrenModelAsset] / [cropModelAsset] may point at uint8/int8 quantized variants; the engine
+ * reads the tensor types and quantization parameters from the model itself.
+ * [reducedPrecision] allows FP16 arithmetic for float models on the NNAPI delegate (see [tuning]);
+ * the CPU and XNNPACK kernels always compute in FP32.
+ *
+ * [tuning] sets threads and accelerator per model, replacing [threadsPerInterpreter]. Without it,
+ * [autoTune] lets [ModelEngine] use the settings [EngineTuner] measured as fastest on this
+ * device (benchmarking on the first load, or in the background if that load is on the main
+ * thread); an explicit [tuning] always wins.
+ */
+data class EngineConfig @JvmOverloads constructor(
+    val interpreterPoolSize: Int = 1,
+    val threadsPerInterpreter: Int = 4,
+    val barrenModelAsset: String = "barren_vs_crop_model_v3.tflite",
+    val cropModelAsset: String = "phase1_model.tflite",
+    val reducedPrecision: Boolean = false,
+    val tuning: EngineTuning? = null,
+    val autoTune: Boolean = false
+) {
+
+    val parallelGrid: Boolean
+        get() = interpreterPoolSize > 1
+
+    /**
+     * Clamps the config so pool size x threads never exceeds [cores].
+     */
+    fun resolved(cores: Int = Runtime.getRuntime().availableProcessors()): EngineConfig {
+        val pool = interpreterPoolSize.coerceIn(1, cores)
+        val maxThreads = maxOf(1, cores / pool)
+        val threads = threadsPerInterpreter.coerceIn(1, maxThreads)
+        val clampedTuning = tuning?.let {
+            EngineTuning(it.barren.clamped(maxThreads), it.crop.clamped(maxThreads))
+        }
+        return copy(interpreterPoolSize = pool, threadsPerInterpreter = threads, tuning = clampedTuning)
+    }
+
+    companion object {
+        /**
+         * Parallel grid config that uses every core: two threads per interpreter,
+         * as many interpreters as that allows.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun parallel(cores: Int = Runtime.getRuntime().availableProcessors()): EngineConfig {
+            return EngineConfig(maxOf(1, cores / 2), 2).resolved(cores)
+        }
+
+        /**
+         * Default config with [autoTune] on.
+         */
+        @JvmStatic
+        fun autoTuned(): EngineConfig = EngineConfig(autoTune = true)
+    }
+}
+
+/**
+ * Where a model's kernels run.
+ */
+enum class Accelerator {
+    /** TFLite's built-in CPU kernels, XNNPACK off */
+    CPU,
+    /** XNNPACK CPU delegate */
+    XNNPACK,
+    /** Android Neural Networks API (API 27+); the thread count does not apply */
+    NNAPI
+}
+
+data class InterpreterSettings(val threads: Int, val accelerator: Accelerator) {
+
+    internal fun clamped(maxThreads: Int): InterpreterSettings = copy(threads = threads.coerceIn(1, maxThreads))
+
+    override fun toString(): String = "$accelerator x$threads"
+}
+
+/**
+ * Per-model [InterpreterSettings], see [EngineConfig.tuning].
+ */
+data class EngineTuning(val barren: InterpreterSettings, val crop: InterpreterSettings)
+
+//AnalysisOptions.kt
+package com.example.cropanalysissdk
+
+/**
+ * Pipeline behaviour switches for [CropSDK]. Defaults reproduce the original pipeline.
+ *
+ * @param earlyExit stop scoring offset-grid cells once the accepted crops are unlikely to change
+ *   (see [VoteTally]). A heuristic: a crop no aligned cell voted for is assumed not to appear, so
+ *   a single offset cell scoring [VotingRules.SUPER_HIGH_CONF] for a new crop can make the
+ *   accepted crops and the step-5 override differ from the full pass. At most the 4 offset cells
+ *   of the 13 are skipped. Vote counts and average confidences only include the cells that ran.
+ * @param skipBareSoilCells skip both models on cells with almost no green pixels
+ *   (see [RegionStats.isBareSoil]). Off by default: ripe, yellowed crops can look like soil.
+ * @param cacheResults serve repeated analyses of identical pixels from [ResultCache].
+ * @param journalResults append every full photo analysis to the on-device [ResultJournal]; cache
+ *   hits and degraded latency-budget results are left out so no photo counts twice.
+ * @param cascade which grid-cell models run and in what order; see [CascadePolicy] and
+ *   [MetricsSnapshot.inferencesSaved].
+ */
+data class AnalysisOptions @JvmOverloads constructor(
+    val earlyExit: Boolean = false,
+    val skipBareSoilCells: Boolean = false,
+    val cacheResults: Boolean = true,
+    val journalResults: Boolean = true,
+    val cascade: CascadePolicy = CascadePolicy.BARREN_FIRST
+)
+
+//VotingRules.kt
+package com.example.cropanalysissdk
+
+/**
+ * Step-4 acceptance thresholds (matching the Python ensemble).
+ */
+object VotingRules {
+
+    const val CONF_THRESH = 0.65f
+    const val VOTE_THRESH = 3
+
+    // A crop that agrees with the full-image prior needs less grid support
+    const val PRIOR_VOTE_THRESH = 2
+    const val PRIOR_CONF_THRESH = 0.60f
+
+    // A single cell this confident is accepted on its own
+    const val SUPER_HIGH_CONF = 0.99f
+
+    fun voteRequirement(isFullPrior: Boolean): Int = if (isFullPrior) PRIOR_VOTE_THRESH else VOTE_THRESH
+
+    fun confidenceRequirement(isFullPrior: Boolean): Float = if (isFullPrior) PRIOR_CONF_THRESH else CONF_THRESH
+
+    fun isAccepted(votes: Int, avgConf: Float, isFullPrior: Boolean): Boolean {
+        val isSuperHighConf = (votes >= 1 && avgConf >= SUPER_HIGH_CONF)
+        return (votes >= voteRequirement(isFullPrior) && avgConf >= confidenceRequirement(isFullPrior)) || isSuperHighConf
+    }
+}
+
+//VotingEngine.kt
+package com.example.cropanalysissdk
+
+/**
+ * Steps 4-6 of the pipeline (Python replica): grid votes → accepted crops → full-image override
+ * and fallback. Pure Kotlin, so it can be benchmarked off-device.
+ */
+object VotingEngine {
+
+    enum class Resolution {
+        /** Grid consensus kept as is (possibly empty) */
+        ENSEMBLE,
+        /** Step 5: full-image crop missing from the consensus, replaced by it */
+        OVERRIDE,
+        /** Step 6: nothing accepted, full-image crop used */
+        FALLBACK
+    }
+
+    fun interface VoteObserver {
+        fun onVote(cropName: String, votes: Int, averageConfidence: Float, accepted: Boolean)
+    }
+
+    /**
+     * 4. VOTING ENGINE: groups cell [detections] by crop and keeps those meeting
+     * [VotingRules.isAccepted], with the looser thresholds for [fullCropName].
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun vote(detections: List<CropDetection>, fullCropName: String, observer: VoteObserver? = null): MutableList<CropDetection> {
+        val votesMap = detections.groupBy { it.cropName }
+        val finalResults = mutableListOf<CropDetection>()
+
+        for ((crop, items) in votesMap) {
+            val voteCount = items.size
+            val avgConf = items.map { it.confidence }.average().toFloat()
+
+            // Logic: Is this the same crop as the Full Image?
+            // (Dynamic Thresholds: see VotingRules.voteRequirement / confidenceRequirement)
+            val isFullPrior = (crop == fullCropName)
+
+            val accepted = VotingRules.isAccepted(voteCount, avgConf, isFullPrior)
+            if (accepted) {
+                // Formatting Location String
+                val distinctLocs = items.map { it.location }
+                    .distinct()
+                    .filter { it != "Offset-Region" }
+                    .joinToString(", ")
+
+                finalResults.add(CropDetection(
+                    cropName = crop,
+                    confidence = avgConf,
+                    votes = voteCount,
+                    location = if (distinctLocs.isEmpty()) "Multiple Regions" else distinctLocs,
+                    source = if (isFullPrior) "Full-Image-Prior" else "Grid-Consensus",
+                    regionMask = items.fold(0) { mask, it -> mask or it.regionMask }
+                ))
+            }
+            observer?.onVote(crop, voteCount, avgConf, accepted)
+        }
+        return finalResults
+    }
+
+    /**
+     * 4. over a grid pass's [VoteMatrix], with the same outcome as [vote] over its cells'
+     * detections: a cell votes for its top class if that reaches [VotingRules.CONF_THRESH], and
+     * aligned cells name the locations. Votes, confidence sums, masks and locations are kept in
+     * per-class primitive arrays; [CropDetection]s are built only for accepted crops, in the order
+     * their first vote came in.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun vote(matrix: VoteMatrix, fullCropName: String, observer: VoteObserver? = null): MutableList<CropDetection> {
+        val classes = matrix.classes
+        val votes = IntArray(classes)
+        val confSum = DoubleArray(classes)
+        val masks = IntArray(classes)
+        val locations = IntArray(classes)
+        val firstCell = IntArray(classes) { -1 }
+
+        for (cell in 0 until matrix.cells) {
+            val cls = matrix.topClass(cell)
+            if (cls < 0) continue
+            val conf = matrix.confidence(cell)
+            if (conf < VotingRules.CONF_THRESH) continue
+
+            if (votes[cls] == 0) firstCell[cls] = cell
+            votes[cls]++
+            confSum[cls] += conf.toDouble()
+            masks[cls] = masks[cls] or matrix.regionMask(cell)
+            // Offset cells are voters only; their "Offset-Region" never shows as a location
+            if (cell < GridLayout.ALIGNED_CELLS) locations[cls] = locations[cls] or (1 shl cell)
+        }
+
+        val finalResults = mutableListOf<CropDetection>()
+        for (cell in 0 until matrix.cells) {
+            val cls = matrix.topClass(cell)
+            if (cls < 0 || firstCell[cls] != cell) continue
+
+            val crop = matrix.labels[cls]
+            val voteCount = votes[cls]
+            val avgConf = (confSum[cls] / voteCount).toFloat()
+            val isFullPrior = (crop == fullCropName)
+
+            val accepted = VotingRules.isAccepted(voteCount, avgConf, isFullPrior)
+            if (accepted) {
+                finalResults.add(CropDetection(
+                    cropName = crop,
+                    confidence = avgConf,
+                    votes = voteCount,
+                    location = locationNames(locations[cls]),
+                    source = if (isFullPrior) "Full-Image-Prior" else "Grid-Consensus",
+                    regionMask = masks[cls]
+                ))
+            }
+            observer?.onVote(crop, voteCount, avgConf, accepted)
+        }
+        return finalResults
+    }
+
+    // Aligned-cell bitmask → "Top-Left, Center, ..." in grid order
+    private fun locationNames(cells: Int): String {
+        if (cells == 0) return "Multiple Regions"
+        val names = StringBuilder()
+        for (index in 0 until GridLayout.ALIGNED_CELLS) {
+            if ((cells and (1 shl index)) == 0) continue
+            if (names.isNotEmpty()) names.append(", ")
+            names.append(GridLayout.locationName(index))
+        }
+        return names.toString()
+    }
+
+    /**
+     * 5. CRITICAL OVERRIDE and 6. FALLBACK, applied to [finalResults] in place.
+     */
+    @JvmStatic
+    fun resolve(
+        finalResults: MutableList<CropDetection>,
+        fullCropName: String,
+        fullCropConf: Float,
+        isBarren: Boolean
+    ): Resolution {
+        // 5. Python: "Replacing ensemble output with full-image result"
+        val finalCropNames = finalResults.map { it.cropName }
+
+        // 🔴 FIXED: This now works correctly because barren logic is fixed
+        if (!isBarren && fullCropName != "Unknown" && !finalCropNames.contains(fullCropName)) {
+            // Full image crop not in ensemble results → replace ensemble with full-image result
+            finalResults.clear()
+            finalResults.add(CropDetection(
+                cropName = fullCropName,
+                confidence = fullCropConf,
+                votes = 1,
+                location = "Entire Field",
+                source = "Full-Image-Override"
+            ))
+            return Resolution.OVERRIDE
+        }
+
+        // 6. FALLBACK (if everything else failed)
+        if (!isBarren && finalResults.isEmpty() && fullCropName != "Unknown") {
+            // No ensemble results, using full-image fallback
+            finalResults.add(CropDetection(
+                cropName = fullCropName,
+                confidence = fullCropConf,
+                votes = 0,
+                location = "Entire Field",
+                source = "Fallback-Mode"
+            ))
+            return Resolution.FALLBACK
+        }
+        return Resolution.ENSEMBLE
+    }
+}
+
+//VoteMatrix.kt
+package com.example.cropanalysissdk
+
+/**
+ * Crop model output for every cell of one grid pass: a row-major N x [classes] probability
+ * matrix, each cell's top class and confidence, and its [CropDetection.regionMask] bit.
+ * [VotingEngine.vote] aggregates it with primitive loops, so scoring and voting a cell
+ * allocates nothing.
+ *
+ * A cell is empty (barren, prefiltered or never scored) until its row is [complete]d; [clear]
+ * empties it again. Rows can be written from several threads as long as each cell is written
+ * by one of them.
+ */
+class VoteMatrix @JvmOverloads constructor(
+    val cells: Int,
+    val labels: List<String> = InferenceBackend.CROP_LABELS
+) {
+
+    val classes: Int = labels.size
+
+    private val probabilities = FloatArray(cells * classes)
+    private val top = IntArray(cells) { EMPTY }
+    private val topConfidence = FloatArray(cells)
+
+    fun set(cell: Int, cls: Int, probability: Float) {
+        probabilities[cell * classes + cls] = probability
+    }
+
+    fun probability(cell: Int, cls: Int): Float = probabilities[cell * classes + cls]
+
+    /**
+     * Marks [cell] scored and picks its top class the way the crop model's output is read:
+     * NaN scores are skipped, and a row with nothing above 0 gets [NO_CLASS].
+     */
+    fun complete(cell: Int) {
+        var best = NO_CLASS
+        var bestProb = -1.0f
+        val row = cell * classes
+        for (cls in 0 until classes) {
+            val p = probabilities[row + cls]
+            // NaN Safety
+            if (p.isNaN()) continue
+            if (p > bestProb) {
+                bestProb = p
+                best = cls
+            }
+        }
+        if (best != NO_CLASS && bestProb > 0.0f) {
+            top[cell] = best
+            topConfidence[cell] = bestProb
+        } else {
+            top[cell] = NO_CLASS
+            topConfidence[cell] = 0f
+        }
+    }
+
+    /**
+     * For backends that only report the top class: [cls] gets [confidence], the rest 0.
+     * [cls] < 0 means nothing was recognised.
+     */
+    fun setTop(cell: Int, cls: Int, confidence: Float) {
+        probabilities.fill(0f, cell * classes, (cell + 1) * classes)
+        top[cell] = if (cls >= 0) cls else NO_CLASS
+        topConfidence[cell] = if (cls >= 0) confidence else 0f
+        if (cls >= 0) probabilities[cell * classes + cls] = confidence
+    }
+
+    fun clear(cell: Int) {
+        top[cell] = EMPTY
+    }
+
+    fun isScored(cell: Int): Boolean = top[cell] != EMPTY
+
+    /** Index into [labels], [NO_CLASS] if nothing was recognised, [EMPTY] if not scored. */
+    fun topClass(cell: Int): Int = top[cell]
+
+    fun confidence(cell: Int): Float = if (top[cell] == EMPTY) 0f else topConfidence[cell]
+
+    /** Label of [topClass], "Unknown" when there is none. */
+    fun cropName(cell: Int): String = top[cell].let { if (it >= 0) labels[it] else "Unknown" }
+
+    fun regionMask(cell: Int): Int = if (cell < Int.SIZE_BITS) 1 shl cell else 0
+
+    companion object {
+        const val EMPTY = -2
+        const val NO_CLASS = -1
+    }
+}
+
+//VoteTally.kt
+package com.example.cropanalysissdk
+
+/**
+ * Running per-crop votes for early-exit voting.
+ *
+ * Heuristic: only crops that already have a vote, plus the full-image prior, are treated as able
+ * to gain votes, since the caller feeds the aligned grid (which covers the whole frame) before
+ * asking and the offset cells re-sample the same content. An exact bound would have to assume
+ * any remaining cell could be a [VotingRules.SUPER_HIGH_CONF] vote for an unseen crop, which is
+ * accepted on its own, and would then never stop before the last cell.
+ */
+class VoteTally(private val fullCropName: String) {
+
+    private val labels = InferenceBackend.CROP_LABELS
+    private val votes = IntArray(labels.size)
+    private val confSum = FloatArray(labels.size)
+
+    /**
+     * Counts a scored cell. Cells under [VotingRules.CONF_THRESH] do not vote.
+     */
+    fun add(cropName: String, confidence: Float) = add(labels.indexOf(cropName), confidence)
+
+    /**
+     * [add] by index into [InferenceBackend.CROP_LABELS], e.g. [VoteMatrix.topClass].
+     */
+    fun add(cls: Int, confidence: Float) {
+        if (confidence < VotingRules.CONF_THRESH) return
+        if (cls < 0 || cls >= labels.size) return
+        votes[cls]++
+        confSum[cls] += confidence
+    }
+
+    /**
+     * True if no outcome of the [remaining] cells can change which of the crops that already
+     * have a vote (or are the full-image prior) are accepted.
+     *
+     * Every counted vote is at least [VotingRules.CONF_THRESH], which is never below a confidence
+     * requirement. So an accepted crop with enough votes stays accepted. A rejected crop can
+     * only flip by reaching its vote requirement, or by being lifted to the super-high
+     * average with perfect scores.
+     */
+    fun isDecided(remaining: Int): Boolean {
+        if (remaining == 0) return true
+
+        for (i in labels.indices) {
+            val isFullPrior = labels[i] == fullCropName
+            val v = votes[i]
+            // Not exact: a crop first seen in an offset cell is assumed not to matter
+            if (v == 0 && !isFullPrior) continue
+
+            val avg = if (v > 0) confSum[i] / v else 0f
+            val voteReq = VotingRules.voteRequirement(isFullPrior)
+
+            if (VotingRules.isAccepted(v, avg, isFullPrior)) {
+                // Accepted only through the super-high shortcut: one ordinary vote can undo it
+                if (v < voteReq) return false
+            } else {
+                if (v + remaining >= voteReq) return false
+                val bestAvg = (confSum[i] + remaining) / (v + remaining)
+                if (bestAvg >= VotingRules.SUPER_HIGH_CONF) return false
+            }
+        }
+        return true
+    }
+}
+
+//PipelineMetrics.kt
+package com.example.cropanalysissdk
+
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Pipeline stages timed by [PipelineMetrics].
+ */
+enum class PipelineStage {
+    /** Loading pixels: decoding a Uri/File or copying a bitmap's pixels. */
+    DECODE,
+    /** Sky / bare-soil prefilter over the grid cells. */
+    SKY_CHECK,
+    /** Resizing regions into model input tensors. */
+    PREPROCESS,
+    BARREN_INFERENCE,
+    CROP_INFERENCE,
+    /** Step 4, the voting engine. */
+    VOTING,
+    /** Steps 5 and 6, full-image override and fallback. */
+    OVERRIDE
+}
+
+/**
+ * Per-stage latency histograms for one [CropSDK]. Recording is lock-free (atomic counters only),
+ * so it is safe to leave on in production.
+ *
+ * Each analysis adds one sample per stage it ran, in microseconds, to a log2-bucketed histogram.
+ * Grid workers run in parallel, so the PREPROCESS and INFERENCE samples are summed over workers
+ * and can exceed the analysis wall time. Read everything at once with [snapshot], or get each
+ * analysis's timings through [addListener].
+ */
+class PipelineMetrics {
+
+    private val stageCount = PipelineStage.values().size
+    private val buckets = AtomicLongArray(stageCount * BUCKETS)
+    private val samples = AtomicLongArray(stageCount)
+    private val totalMicros = AtomicLongArray(stageCount)
+
+    private val analyses = AtomicLong()
+    private val cacheHits = AtomicLong()
+    private val cellsRun = AtomicLong()
+    private val cellsSkipped = AtomicLong()
+    private val inferencesRun = AtomicLong()
+    private val inferencesSaved = AtomicLong()
+
+    private val listeners = CopyOnWriteArrayList<MetricsListener>()
+
+    fun snapshot(): MetricsSnapshot {
+        val stages = PipelineStage.values().associateWith { stage ->
+            val s = stage.ordinal
+            StageHistogram(
+                samples = samples.get(s),
+                totalMicros = totalMicros.get(s),
+                buckets = LongArray(BUCKETS) { buckets.get(s * BUCKETS + it) }
+            )
+        }
+        return MetricsSnapshot(
+            stages, analyses.get(), cacheHits.get(), cellsRun.get(), cellsSkipped.get(),
+            inferencesRun.get(), inferencesSaved.get()
+        )
+    }
+
+    /**
+     * [listener] is called on the analysing thread after every analysis; keep it cheap.
+     */
+    fun addListener(listener: MetricsListener) {
+        listeners.add(listener)
+    }
+
+    fun removeListener(listener: MetricsListener) {
+        listeners.remove(listener)
+    }
+
+    fun reset() {
+        for (i in 0 until buckets.length()) buckets.set(i, 0)
+        for (i in 0 until stageCount) {
+            samples.set(i, 0)
+            totalMicros.set(i, 0)
+        }
+        analyses.set(0)
+        cacheHits.set(0)
+        cellsRun.set(0)
+        cellsSkipped.set(0)
+        inferencesRun.set(0)
+        inferencesSaved.set(0)
+    }
+
+    internal fun record(timer: StageTimer) {
+        val micros = LongArray(stageCount) { -1L }
+        for (s in 0 until stageCount) {
+            if (timer.calls.get(s) == 0L) continue
+            val us = timer.nanos.get(s) / 1000
+            micros[s] = us
+            samples.incrementAndGet(s)
+            totalMicros.addAndGet(s, us)
+            buckets.incrementAndGet(s * BUCKETS + bucketOf(us))
+        }
+        analyses.incrementAndGet()
+        if (timer.cacheHit) cacheHits.incrementAndGet()
+        cellsRun.addAndGet(timer.cellsRun.toLong())
+        cellsSkipped.addAndGet(timer.cellsSkipped.toLong())
+        inferencesRun.addAndGet(timer.inferencesRun.get().toLong())
+        inferencesSaved.addAndGet(timer.inferencesSaved.get().toLong())
+
+        if (listeners.isEmpty()) return
+        val timings = AnalysisTimings(
+            stageMicros = PipelineStage.values().filter { micros[it.ordinal] >= 0 }.associateWith { micros[it.ordinal] },
+            cellsRun = timer.cellsRun,
+            cellsSkipped = timer.cellsSkipped,
+            isCacheHit = timer.cacheHit,
+            inferencesRun = timer.inferencesRun.get(),
+            inferencesSaved = timer.inferencesSaved.get()
+        )
+        listeners.forEach { it.onAnalysis(timings) }
+    }
+
+    companion object {
+        /** Bucket i holds samples below 2^i µs; the last one is open-ended (≥ ~1 min). */
+        const val BUCKETS = 27
+
+        private fun bucketOf(micros: Long): Int = minOf(BUCKETS - 1, 64 - java.lang.Long.numberOfLeadingZeros(micros))
+    }
+}
+
+/**
+ * Accumulates one analysis's stage times before they go into [PipelineMetrics]. Grid workers
+ * add to it concurrently.
+ */
+internal class StageTimer {
+    val nanos = AtomicLongArray(PipelineStage.values().size)
+    val calls = AtomicLongArray(PipelineStage.values().size)
+
+    // Grid-cell model runs, and runs the cascade avoided out of two per scored cell
+    val inferencesRun = AtomicInteger()
+    val inferencesSaved = AtomicInteger()
+
+    // Written by the pipeline thread only
+    var cellsRun = 0
+    var cellsSkipped = 0
+    var cacheHit = false
+
+    fun add(stage: PipelineStage, elapsedNanos: Long) {
+        nanos.addAndGet(stage.ordinal, elapsedNanos)
+        calls.incrementAndGet(stage.ordinal)
+    }
+}
+
+/**
+ * Times [block] into [stage]; also a [CropTrace] section, so stages show up in Perfetto.
+ */
+internal inline fun <T> StageTimer?.time(stage: PipelineStage, block: () -> T): T {
+    if (this == null) return block()
+    val start = System.nanoTime()
+    try {
+        return CropTrace.section(stage.name, block)
+    } finally {
+        add(stage, System.nanoTime() - start)
+    }
+}
+
+data class StageHistogram(
+    val samples: Long,
+    val totalMicros: Long,
+    val buckets: LongArray
+) {
+    val meanMicros: Long
+        get() = if (samples > 0) totalMicros / samples else 0
+
+    /**
+     * Upper bound (in µs) of the bucket holding the [fraction] quantile, e.g. 0.95 for p95.
+     */
+    fun percentileMicros(fraction: Double): Long {
+        if (samples == 0L) return 0
+        val target = Math.ceil(samples * fraction).toLong().coerceAtLeast(1)
+        var seen = 0L
+        for (i in buckets.indices) {
+            seen += buckets[i]
+            if (seen >= target) return 1L shl i
+        }
+        return 1L shl (buckets.size - 1)
+    }
+
+    override fun equals(other: Any?): Boolean =
+        other is StageHistogram && samples == other.samples && totalMicros == other.totalMicros &&
+                buckets.contentEquals(other.buckets)
+
+    override fun hashCode(): Int = 31 * (31 * samples.hashCode() + totalMicros.hashCode()) + buckets.contentHashCode()
+}
+
+/**
+ * [inferencesRun] counts grid-cell model runs; [inferencesSaved] how many fewer that is than
+ * [CascadePolicy.BARREN_FIRST] would have run on the same cells, negative if the cascade cost more.
+ */
+data class MetricsSnapshot(
+    val stages: Map<PipelineStage, StageHistogram>,
+    val analyses: Long,
+    val cacheHits: Long,
+    val cellsRun: Long,
+    val cellsSkipped: Long,
+    val inferencesRun: Long,
+    val inferencesSaved: Long
+)
+
+/**
+ * Stage times of a single analysis; stages that did not run are absent.
+ */
+data class AnalysisTimings(
+    val stageMicros: Map<PipelineStage, Long>,
+    val cellsRun: Int,
+    val cellsSkipped: Int,
+    val isCacheHit: Boolean,
+    val inferencesRun: Int,
+    val inferencesSaved: Int
+)
+
+fun interface MetricsListener {
+    fun onAnalysis(timings: AnalysisTimings)
+}
+
+//CropTrace.kt
+package com.example.cropanalysissdk
+
+import java.util.Locale
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Structured trace points recorded by [CropTrace]. What [TraceRecord.arg0], [TraceRecord.arg1]
+ * and [TraceRecord.value] mean is listed per event; crop ids index [InferenceBackend.CROP_LABELS]
+ * (-1 = unknown).
+ */
+enum class TraceEvent {
+    /** arg0 = image width, arg1 = image height */
+    ANALYSIS_START,
+    /** arg0 = lookup time in ms */
+    CACHE_HIT,
+    /** arg0 = 1 if fallow, value = confidence */
+    FALLOW_VERDICT,
+    /** arg0 = crop id, value = confidence */
+    FULL_IMAGE,
+    /** Fallow verdict overturned by a confident full-image crop; arg0 = crop id, value = confidence */
+    FALLOW_OVERRULED,
+    /** Grid pass skipped as confidently fallow */
+    GRID_SKIPPED,
+    /** arg0 = cell index */
+    CELL_SKY,
+    /** arg0 = cell index */
+    CELL_BARE_SOIL,
+    /** Early exit; arg0 = cell index */
+    CELL_DECIDED,
+    /** Latency budget; arg0 = [GridDensity] ordinal, arg1 = budget left in ms */
+    GRID_BUDGET,
+    /** Cut by the latency budget; arg0 = cell index */
+    CELL_OVER_BUDGET,
+    /** arg0 = cell index */
+    CELL_BARREN,
+    /** arg0 = cell index, arg1 = crop id, value = confidence */
+    CELL_DETECTED,
+    /** arg0 = cell index, arg1 = crop id, value = confidence */
+    CELL_LOW_CONFIDENCE,
+    /** arg0 = crop id, arg1 = votes, value = average confidence */
+    VOTE_ACCEPTED,
+    /** arg0 = crop id, arg1 = votes, value = average confidence */
+    VOTE_REJECTED,
+    /** Step 5; arg0 = full-image crop id, value = confidence */
+    OVERRIDE,
+    /** Step 6; arg0 = full-image crop id, value = confidence */
+    FALLBACK,
+    /** arg0 = detections, arg1 = execution time in ms */
+    ANALYSIS_END
+}
+
+/**
+ * On-demand tracing for the analysis pipeline.
+ *
+ * Disabled (the default), every trace point is one volatile read and nothing else: no strings,
+ * no allocation. [enable] allocates a fixed ring buffer of primitive arrays; trace points then
+ * write into it lock-free, the oldest records being overwritten, and pipeline stages show up as
+ * `android.os.Trace` sections in Perfetto/systrace. Text is only produced by [dump] and
+ * [dumpToLog].
+ */
+object CropTrace {
+
+    private const val TAG = "CropTrace"
+    private const val DEFAULT_CAPACITY = 4096
+
+    @PublishedApi
+    @Volatile
+    internal var ring: Ring? = null
+
+    @JvmStatic
+    val isEnabled: Boolean
+        get() = ring != null
+
+    /**
+     * Starts recording into a new buffer of [capacity] records (rounded up to a power of two).
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun enable(capacity: Int = DEFAULT_CAPACITY) {
+        ring = Ring(Integer.highestOneBit(maxOf(2, capacity - 1)) shl 1)
+    }
+
+    /**
+     * Stops recording and drops the buffer.
+     */
+    @JvmStatic
+    fun disable() {
+        ring = null
+    }
+
+    @Suppress("NOTHING_TO_INLINE")
+    inline fun event(type: TraceEvent, arg0: Int = 0, arg1: Int = 0, value: Float = 0f) {
+        val r = ring ?: return
+        r.add(type, arg0, arg1, value)
+    }
+
+    /**
+     * [event] whose [arg0] is the id of [cropName]; the lookup only happens while enabled.
+     */
+    @Suppress("NOTHING_TO_INLINE")
+    inline fun cropEvent(type: TraceEvent, cropName: String, arg1: Int = 0, value: Float = 0f) {
+        val r = ring ?: return
+        r.add(type, InferenceBackend.CROP_LABELS.indexOf(cropName), arg1, value)
+    }
+
+    /**
+     * [event] for a cell: [arg0] is the cell index and [arg1] the id of [cropName].
+     */
+    @Suppress("NOTHING_TO_INLINE")
+    inline fun cellEvent(type: TraceEvent, index: Int, cropName: String, value: Float) {
+        val r = ring ?: return
+        r.add(type, index, InferenceBackend.CROP_LABELS.indexOf(cropName), value)
+    }
+
+    /**
+     * Runs [block] inside an `android.os.Trace` section while tracing is enabled.
+     */
+    inline fun <T> section(name: String, block: () -> T): T {
+        if (ring == null) return block()
+        Platform.beginSection(name)
+        try {
+            return block()
+        } finally {
+            Platform.endSection()
+        }
+    }
+
+    /**
+     * Records currently in the buffer, oldest first. Records written while this runs may be
+     * missing or torn; dump when no analysis is running for an exact picture.
+     */
+    @JvmStatic
+    fun dump(): List<TraceRecord> = ring?.snapshot() ?: emptyList()
+
+    @JvmStatic
+    fun dumpToLog() {
+        dump().forEach { Platform.log(TAG, it.toString()) }
+    }
+
+    @PublishedApi
+    internal class Ring(capacity: Int) {
+        private val mask = capacity - 1
+        private val cursor = AtomicLong()
+        private val times = LongArray(capacity)
+        private val events = ByteArray(capacity)
+        private val arg0s = IntArray(capacity)
+        private val arg1s = IntArray(capacity)
+        private val values = FloatArray(capacity)
+
+        fun add(type: TraceEvent, arg0: Int, arg1: Int, value: Float) {
+            val slot = (cursor.getAndIncrement() and mask.toLong()).toInt()
+            times[slot] = System.nanoTime()
+            events[slot] = type.ordinal.toByte()
+            arg0s[slot] = arg0
+            arg1s[slot] = arg1
+            values[slot] = value
+        }
+
+        fun snapshot(): List<TraceRecord> {
+            val end = cursor.get()
+            val start = maxOf(0L, end - (mask + 1))
+            val all = TraceEvent.values()
+            return (start until end).map { n ->
+                val slot = (n and mask.toLong()).toInt()
+                TraceRecord(times[slot], all[events[slot].toInt()], arg0s[slot], arg1s[slot], values[slot])
+            }
+        }
+    }
+}
+
+data class TraceRecord(
+    val timestampNs: Long,
+    val event: TraceEvent,
+    val arg0: Int,
+    val arg1: Int,
+    val value: Float
+) {
+    override fun toString(): String {
+        val detail = when (event) {
+            TraceEvent.ANALYSIS_START -> "${arg0}x$arg1"
+            TraceEvent.CACHE_HIT -> "$arg0 ms"
+            TraceEvent.FALLOW_VERDICT -> "fallow=${arg0 == 1} ${percent(value)}"
+            TraceEvent.FULL_IMAGE, TraceEvent.FALLOW_OVERRULED,
+            TraceEvent.OVERRIDE, TraceEvent.FALLBACK -> "${crop(arg0)} ${percent(value)}"
+            TraceEvent.GRID_SKIPPED -> ""
+            TraceEvent.CELL_SKY, TraceEvent.CELL_BARE_SOIL, TraceEvent.CELL_DECIDED,
+            TraceEvent.CELL_OVER_BUDGET, TraceEvent.CELL_BARREN -> "region $arg0"
+            TraceEvent.GRID_BUDGET -> "${GridDensity.values().getOrNull(arg0)} with $arg1 ms left"
+            TraceEvent.CELL_DETECTED, TraceEvent.CELL_LOW_CONFIDENCE -> "region $arg0 ${crop(arg1)} ${percent(value)}"
+            TraceEvent.VOTE_ACCEPTED, TraceEvent.VOTE_REJECTED -> "${crop(arg0)} votes=$arg1 avg ${percent(value)}"
+            TraceEvent.ANALYSIS_END -> "$arg0 detections in $arg1 ms"
+        }
+        return "$timestampNs $event $detail".trimEnd()
+    }
+
+    private fun crop(id: Int): String = InferenceBackend.CROP_LABELS.getOrElse(id) { "Unknown" }
+
+    private fun percent(value: Float): String = String.format(Locale.US, "%.1f%%", value * 100)
+}
+
+//Platform.kt
+package com.example.cropanalysissdk
+
+import android.os.Trace
+import android.util.Log
+
+/**
+ * The only Android calls made by the pure pipeline code ([CropTrace]). The headless JVM runner
+ * compiles its own copy of this object in place of this file.
+ */
+@PublishedApi
+internal object Platform {
+
+    fun beginSection(name: String) = Trace.beginSection(name)
+
+    fun endSection() = Trace.endSection()
+
+    fun log(tag: String, message: String) {
+        Log.d(tag, message)
+    }
+}
+
+//AnalysisResult.kt
+package com.example.cropanalysissdk
+
+/**
+ * The final result object containing all table data.
+ */
+data class AnalysisResult(
+    // Status Column
+    val isBarren: Boolean,
+    val barrenConfidence: Float,
+
+    // Full Crop Result Column
+    val fullImageAnalysis: CropDetection,
+
+    // Detected Crops List (Grid Ensemble)
+    val gridDetections: List<CropDetection>,
+
+    // Performance
+    val executionTimeMs: Long,
+
+    // True when served from the result cache; executionTimeMs is then the lookup time
+    val isCached: Boolean = false,
+
+    // True when a latency budget cut grid cells; such results are never cached
+    val isDegraded: Boolean = false,
+
+    // ContentHash of the analysed pixels (0 if unknown)
+    val imageHash: Long = 0L
+)
+
+/**
+ * Represents a single row in the result table.
+ */
+data class CropDetection(
+    val cropName: String,
+    val confidence: Float,
+    val votes: Int,
+    val location: String, // e.g., "Top-Left", "Center"
+    val source: String,   // "Full-Image-Prior", "Grid-Aligned", etc.
+    val regionMask: Int = 0 // bit i = grid cell i voted for this crop (0-8 aligned, 9+ offset)
+)
+
+//AnalysisEvent.kt
+package com.example.cropanalysissdk
+
+/**
+ * Partial results emitted by [CropSDK.analyzeAsync], in pipeline order.
+ */
+sealed class AnalysisEvent {
+
+    /**
+     * Step 1 verdict on the full image. The final [AnalysisResult.isBarren] can still flip if the
+     * full-image crop pass is confident enough to mark it a false positive.
+     */
+    data class FallowVerdict(val isBarren: Boolean, val confidence: Float) : AnalysisEvent()
+
+    /** Step 2 crop prediction on the full image. */
+    data class FullImageDetection(val detection: CropDetection) : AnalysisEvent()
+
+    /** One grid cell has been scored. [detection] is only set for [CellStatus.DETECTED]. */
+    data class GridCell(
+        val index: Int,
+        val status: CellStatus,
+        val confidence: Float,
+        val detection: CropDetection?
+    ) : AnalysisEvent()
+
+    /** Voting, override and fallback are done; always the last event. */
+    data class Completed(val result: AnalysisResult) : AnalysisEvent()
+}
+
+enum class CellStatus {
+    SKY,
+
+    /** Skipped by the [RegionStats] bare-soil pre-filter, no model was run. */
+    BARE_SOIL,
+    BARREN,
+    LOW_CONFIDENCE,
+    DETECTED,
+
+    /** Not scored because early-exit voting had already decided the outcome, or the latency budget ran out. */
+    SKIPPED
+}
+
+/**
+ * Receives [AnalysisEvent]s. In parallel grid mode grid events can arrive from several workers.
+ */
+fun interface AnalysisListener {
+    fun onEvent(event: AnalysisEvent)
+}
+
+//ContentHash.kt
+package com.example.cropanalysissdk
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * Fast non-cryptographic 64-bit content hash (FNV-1a over 32/64-bit words plus a final
+ * avalanche). Good enough to key caches; not meant to resist deliberate collisions.
+ */
+object ContentHash {
+
+    private const val OFFSET_BASIS = -0x340d631b7bdddcdbL
+    private const val PRIME = 0x100000001b3L
+
+    fun of(image: ImagePixels): Long {
+        var h = OFFSET_BASIS
+        h = (h xor image.width.toLong()) * PRIME
+        h = (h xor image.height.toLong()) * PRIME
+        val argb = image.argb
+        for (i in 0 until image.width * image.height) {
+            h = (h xor (argb[i].toLong() and 0xFFFFFFFFL)) * PRIME
+        }
+        return avalanche(h)
+    }
+
+    fun of(buffer: ByteBuffer): Long {
+        val view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN)
+        view.rewind()
+
+        var h = OFFSET_BASIS
+        h = (h xor view.remaining().toLong()) * PRIME
+        while (view.remaining() >= 8) {
+            h = (h xor view.long) * PRIME
+        }
+        while (view.hasRemaining()) {
+            h = (h xor (view.get().toLong() and 0xFF)) * PRIME
+        }
+        return avalanche(h)
+    }
+
+    // MurmurHash3 fmix64
+    private fun avalanche(value: Long): Long {
+        var h = value
+        h = h xor (h ushr 33)
+        h *= -0xae502812aa7333L
+        h = h xor (h ushr 33)
+        h *= -0x3b314601e57a13adL
+        h = h xor (h ushr 33)
+        return h
+    }
+}
+
+//ResultCache.kt
+package com.example.cropanalysissdk
+
+import android.util.Log
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+
+/**
+ * Two-tier cache of finished [AnalysisResult]s keyed by [key].
+ *
+ * A small in-memory LRU sits in front of a directory of serialized results. The directory is
+ * trimmed oldest-first (by last access) whenever it grows past [maxDiskBytes].
+ */
+class ResultCache @JvmOverloads constructor(
+    private val directory: File,
+    private val maxMemoryEntries: Int = 16,
+    private val maxDiskBytes: Long = 4L * 1024 * 1024
+) {
+
+    private val TAG = "ResultCache"
+
+    private val memory = object : LinkedHashMap<String, AnalysisResult>(maxMemoryEntries, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, AnalysisResult>?): Boolean {
+            return size > maxMemoryEntries
+        }
+    }
+
+    @Synchronized
+    fun get(key: String): AnalysisResult? {
+        memory[key]?.let { return it }
+
+        val file = File(directory, "$key$SUFFIX")
+        if (!file.exists()) return null
+
+        return try {
+            val result = DataInputStream(BufferedInputStream(FileInputStream(file))).use { AnalysisResultCodec.read(it) }
+            file.setLastModified(System.currentTimeMillis())
+            memory[key] = result
+            result
+        } catch (e: IOException) {
+            Log.w(TAG, "Dropping unreadable cache entry $key", e)
+            file.delete()
+            null
+        }
+    }
+
+    @Synchronized
+    fun put(key: String, result: AnalysisResult) {
+        memory[key] = result
+
+        try {
+            if (!directory.exists() && !directory.mkdirs()) return
+
+            // Write then rename, so a crash never leaves a half-written entry behind
+            val tmp = File(directory, "$key.tmp")
+            DataOutputStream(BufferedOutputStream(FileOutputStream(tmp))).use { AnalysisResultCodec.write(it, result) }
+            if (!tmp.renameTo(File(directory, "$key$SUFFIX"))) tmp.delete()
+
+            trimDisk()
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to persist cache entry $key", e)
+        }
+    }
+
+    @Synchronized
+    fun clear() {
+        memory.clear()
+        directory.listFiles()?.forEach { it.delete() }
+    }
+
+    private fun trimDisk() {
+        val files = directory.listFiles { f -> f.name.endsWith(SUFFIX) } ?: return
+        var total = files.sumOf { it.length() }
+        if (total <= maxDiskBytes) return
+
+        for (file in files.sortedBy { it.lastModified() }) {
+            if (total <= maxDiskBytes) break
+            total -= file.length()
+            file.delete()
+        }
+    }
+
+    companion object {
+        private const val SUFFIX = ".bin"
+
+        /**
+         * Cache key for an image hash under a given model version and pipeline options.
+         */
+        fun key(imageHash: Long, modelVersion: String, options: AnalysisOptions): String {
+            val context = ContentHash.of(ByteBuffer.wrap("$modelVersion|$options".toByteArray()))
+            return "%016x%016x".format(imageHash, context)
+        }
+    }
+}
+
+//ResultJournal.kt
+package com.example.cropanalysissdk
+
+import android.util.Log
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteOrder
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Append-only history of analyses as fixed-size binary records in a memory-mapped file.
+ *
+ * Each record is [RECORD_BYTES] bytes: timestamp, image hash, fallow flag and barren confidence,
+ * then up to [MAX_CROPS] slots of (crop id, votes, region bitmask, confidence). Crop ids index
+ * [ModelEngine.CROP_LABELS]. Reads are plain offset arithmetic on the mapping, so history and
+ * summary screens scan tens of thousands of entries without parsing anything.
+ *
+ * Timestamps never go backwards in the file, so a sparse in-memory index (one timestamp every
+ * [TIME_INDEX_STRIDE] records) finds time ranges with a binary search. A per-crop list of record
+ * numbers is rebuilt with one scan on [open] and kept current on [append].
+ */
+class ResultJournal private constructor(file: File) {
+
+    private val TAG = "ResultJournal"
+
+    private val channel = RandomAccessFile(file, "rw").channel
+    private lateinit var map: MappedByteBuffer
+    private var capacity = 0
+    private var count = 0
+
+    private var timeIndex = LongArray(16)
+    private val cropRecords = Array(CROP_LABELS.size) { IntArray(16) }
+    private val cropRecordCount = IntArray(CROP_LABELS.size)
+
+    init {
+        val existing = channel.size()
+        remap(maxOf(INITIAL_CAPACITY, ((existing - HEADER_BYTES) / RECORD_BYTES).toInt()))
+
+        if (existing >= HEADER_BYTES && map.getInt(0) == MAGIC && map.getInt(4) == FORMAT_VERSION) {
+            count = map.getInt(8).coerceIn(0, capacity)
+        } else {
+            if (existing > 0) Log.w(TAG, "Resetting unreadable journal ${file.name}")
+            map.putInt(0, MAGIC)
+            map.putInt(4, FORMAT_VERSION)
+            map.putInt(8, 0)
+        }
+        for (record in 0 until count) indexRecord(record)
+    }
+
+    /** Number of records. */
+    val size: Int
+        @Synchronized get() = count
+
+    /**
+     * Appends [result]. A [timestampMs] older than the last record is raised to it, keeping the
+     * file in time order.
+     *
+     * @return the record number, or -1 if the file could not grow (history is best effort)
+     */
+    @JvmOverloads
+    @Synchronized
+    fun append(result: AnalysisResult, timestampMs: Long = System.currentTimeMillis()): Int {
+        if (count == capacity) {
+            try {
+                remap(capacity * 2)
+            } catch (e: IOException) {
+                Log.w(TAG, "Journal full, dropping record", e)
+                return -1
+            }
+        }
+
+        val record = count
+        val base = offset(record)
+        val timestamp = if (record > 0) maxOf(timestampMs, map.getLong(offset(record - 1))) else timestampMs
+        val crops = result.gridDetections.filter { it.cropName in CROP_LABELS }.take(MAX_CROPS)
+
+        map.putLong(base, timestamp)
+        map.putLong(base + 8, result.imageHash)
+        map.putFloat(base + 16, result.barrenConfidence)
+        map.put(base + 20, ((if (result.isBarren) FLAG_FALLOW else 0) or (if (result.isCached) FLAG_CACHED else 0)).toByte())
+        map.put(base + 21, crops.size.toByte())
+        for (slot in 0 until MAX_CROPS) {
+            val at = base + SLOTS_OFFSET + slot * SLOT_BYTES
+            val crop = crops.getOrNull(slot)
+            map.put(at, (if (crop != null) CROP_LABELS.indexOf(crop.cropName) else NO_CROP).toByte())
+            map.put(at + 1, (crop?.votes ?: 0).coerceIn(0, 255).toByte())
+            map.putShort(at + 2, (crop?.regionMask ?: 0).toShort())
+            map.putFloat(at + 4, crop?.confidence ?: 0f)
+        }
+
+        // The count is published last, so a crash mid-record leaves the previous state intact
+        count++
+        map.putInt(8, count)
+        indexRecord(record)
+        return record
+    }
+
+    @Synchronized
+    fun read(record: Int): JournalEntry {
+        require(record in 0 until count) { "No record $record" }
+        val base = offset(record)
+        val flags = map.get(base + 20).toInt()
+        val crops = List(map.get(base + 21).toInt()) { slot ->
+            val at = base + SLOTS_OFFSET + slot * SLOT_BYTES
+            JournalCrop(
+                cropName = CROP_LABELS[map.get(at).toInt()],
+                confidence = map.getFloat(at + 4),
+                votes = map.get(at + 1).toInt() and 0xFF,
+                regionMask = map.getShort(at + 2).toInt() and 0xFFFF
+            )
+        }
+        return JournalEntry(
+            timestampMs = map.getLong(base),
+            imageHash = map.getLong(base + 8),
+            isFallow = flags and FLAG_FALLOW != 0,
+            barrenConfidence = map.getFloat(base + 16),
+            isCached = flags and FLAG_CACHED != 0,
+            crops = crops
+        )
+    }
+
+    /**
+     * Record numbers whose timestamp is in [fromMs, toMs).
+     */
+    @Synchronized
+    fun recordsBetween(fromMs: Long, toMs: Long): IntRange = firstAtOrAfter(fromMs) until firstAtOrAfter(toMs)
+
+    /**
+     * Record numbers, oldest first, of every analysis that reported [cropName].
+     */
+    @Synchronized
+    fun recordsWithCrop(cropName: String): IntArray {
+        val id = CROP_LABELS.indexOf(cropName)
+        if (id < 0) return IntArray(0)
+        return cropRecords[id].copyOf(cropRecordCount[id])
+    }
+
+    /**
+     * Totals over [fromMs, toMs) straight from the mapped records, without building entries.
+     */
+    @Synchronized
+    fun summarize(fromMs: Long, toMs: Long): JournalSummary {
+        val range = recordsBetween(fromMs, toMs)
+        var fallow = 0
+        val detections = IntArray(CROP_LABELS.size)
+        val confidenceSum = FloatArray(CROP_LABELS.size)
+
+        for (record in range) {
+            val base = offset(record)
+            if (map.get(base + 20).toInt() and FLAG_FALLOW != 0) fallow++
+            for (slot in 0 until map.get(base + 21).toInt()) {
+                val at = base + SLOTS_OFFSET + slot * SLOT_BYTES
+                val id = map.get(at).toInt()
+                detections[id]++
+                confidenceSum[id] += map.getFloat(at + 4)
+            }
+        }
+
+        return JournalSummary(
+            total = range.count(),
+            fallow = fallow,
+            detections = CROP_LABELS.indices.associate { CROP_LABELS[it] to detections[it] },
+            meanConfidence = CROP_LABELS.indices
+                .filter { detections[it] > 0 }
+                .associate { CROP_LABELS[it] to confidenceSum[it] / detections[it] }
+        )
+    }
+
+    /**
+     * Pushes mapped writes to storage; the OS does this on its own eventually.
+     */
+    @Synchronized
+    fun flush() {
+        map.force()
+    }
+
+    private fun firstAtOrAfter(timestampMs: Long): Int {
+        // Sparse index narrows it to one stride, then a short linear scan
+        var lo = 0
+        var hi = (count + TIME_INDEX_STRIDE - 1) / TIME_INDEX_STRIDE
+        while (lo < hi) {
+            val mid = (lo + hi) ushr 1
+            if (timeIndex[mid] < timestampMs) lo = mid + 1 else hi = mid
+        }
+        var record = maxOf(0, (lo - 1) * TIME_INDEX_STRIDE)
+        while (record < count && map.getLong(offset(record)) < timestampMs) record++
+        return record
+    }
+
+    private fun indexRecord(record: Int) {
+        val base = offset(record)
+        if (record % TIME_INDEX_STRIDE == 0) {
+            val slot = record / TIME_INDEX_STRIDE
+            if (slot == timeIndex.size) timeIndex = timeIndex.copyOf(slot * 2)
+            timeIndex[slot] = map.getLong(base)
+        }
+        for (slot in 0 until map.get(base + 21).toInt()) {
+            val id = map.get(base + SLOTS_OFFSET + slot * SLOT_BYTES).toInt()
+            val n = cropRecordCount[id]
+            if (n == cropRecords[id].size) cropRecords[id] = cropRecords[id].copyOf(n * 2)
+            cropRecords[id][n] = record
+            cropRecordCount[id] = n + 1
+        }
+    }
+
+    private fun remap(records: Int) {
+        capacity = records
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + records.toLong() * RECORD_BYTES)
+        map.order(ByteOrder.LITTLE_ENDIAN)
+    }
+
+    private fun offset(record: Int): Int = HEADER_BYTES + record * RECORD_BYTES
+
+    companion object {
+        const val RECORD_BYTES = 56
+        const val MAX_CROPS = 4
+
+        private const val MAGIC = 0x434a524e // "CJRN"
+        private const val FORMAT_VERSION = 1
+        private const val HEADER_BYTES = 16
+        private const val SLOTS_OFFSET = 24
+        private const val SLOT_BYTES = 8
+        private const val FLAG_FALLOW = 1
+        private const val FLAG_CACHED = 2
+        private const val NO_CROP = -1
+        private const val INITIAL_CAPACITY = 1024
+        private const val TIME_INDEX_STRIDE = 256
+
+        private val CROP_LABELS = ModelEngine.CROP_LABELS
+
+        private val journals = HashMap<String, ResultJournal>()
+
+        /**
+         * Returns the journal for [file], opening it on first use. Every caller in the process
+         * shares one instance per file, so appends never race on the mapping.
+         */
+        @JvmStatic
+        @Synchronized
+        fun open(file: File): ResultJournal {
+            return journals.getOrPut(file.canonicalPath) {
+                file.parentFile?.mkdirs()
+                ResultJournal(file)
+            }
+        }
+    }
+}
+
+data class JournalEntry(
+    val timestampMs: Long,
+    val imageHash: Long,
+    val isFallow: Boolean,
+    val barrenConfidence: Float,
+    val isCached: Boolean,
+    val crops: List<JournalCrop>
+)
+
+data class JournalCrop(
+    val cropName: String,
+    val confidence: Float,
+    val votes: Int,
+    val regionMask: Int
+)
+
+/**
+ * Aggregate over a time range: [detections] counts analyses reporting each crop.
+ */
+data class JournalSummary(
+    val total: Int,
+    val fallow: Int,
+    val detections: Map<String, Int>,
+    val meanConfidence: Map<String, Float>
+)
+
+//AnalysisResultCodec.kt
+package com.example.cropanalysissdk
+
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+
+/**
+ * Compact binary form of [AnalysisResult] used by [ResultCache] and [BatchCheckpoint].
+ * Version 1 entries (no region masks or image hash) are still readable.
+ */
+object AnalysisResultCodec {
+
+    private const val FORMAT_VERSION = 2
+
+    fun write(out: DataOutputStream, result: AnalysisResult) {
+        out.writeByte(FORMAT_VERSION)
+        out.writeBoolean(result.isBarren)
+        out.writeFloat(result.barrenConfidence)
+        writeDetection(out, result.fullImageAnalysis)
+        out.writeShort(result.gridDetections.size)
+        result.gridDetections.forEach { writeDetection(out, it) }
+        out.writeLong(result.executionTimeMs)
+        out.writeLong(result.imageHash)
+    }
+
+    fun read(input: DataInputStream): AnalysisResult {
+        val version = input.readUnsignedByte()
+        if (version !in 1..FORMAT_VERSION) throw IOException("Unsupported result format $version")
+
+        val isBarren = input.readBoolean()
+        val barrenConfidence = input.readFloat()
+        val fullImage = readDetection(input, version)
+        val detections = List(input.readUnsignedShort()) { readDetection(input, version) }
+        val executionTimeMs = input.readLong()
+
+        return AnalysisResult(
+            isBarren = isBarren,
+            barrenConfidence = barrenConfidence,
+            fullImageAnalysis = fullImage,
+            gridDetections = detections,
+            executionTimeMs = executionTimeMs,
+            imageHash = if (version >= 2) input.readLong() else 0L
+        )
+    }
+
+    private fun writeDetection(out: DataOutputStream, detection: CropDetection) {
+        out.writeUTF(detection.cropName)
+        out.writeFloat(detection.confidence)
+        out.writeInt(detection.votes)
+        out.writeUTF(detection.location)
+        out.writeUTF(detection.source)
+        out.writeInt(detection.regionMask)
+    }
+
+    private fun readDetection(input: DataInputStream, version: Int): CropDetection {
+        return CropDetection(
+            cropName = input.readUTF(),
+            confidence = input.readFloat(),
+            votes = input.readInt(),
+            location = input.readUTF(),
+            source = input.readUTF(),
+            regionMask = if (version >= 2) input.readInt() else 0
+        )
+    }
+}
+
+//BatchAnalyzer.kt
+package com.example.cropanalysissdk
+
+import android.content.ContentResolver
+import android.content.Context
+import android.graphics.Bitmap
+import android.net.Uri
+import android.os.SystemClock
+import android.provider.DocumentsContract
+import android.provider.MediaStore
+import android.provider.OpenableColumns
+import android.util.Log
+import java.io.File
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Analyses a whole folder of photos with decode, pixel extraction and inference running as
+ * overlapping stages.
+ *
+ * A decode thread and a preprocessing thread feed the inference stage on the calling thread
+ * through bounded queues of [queueCapacity] images. While the models run on image N, image N+1
+ * is being turned into pixels and N+2 decoded, and memory stays bounded however many photos
+ * there are. Every finished image is appended to [checkpointFile]. A later [run] skips images
+ * that are already done, found by URI even if photos were added or removed meanwhile, so a
+ * killed process resumes where it stopped; an image whose file changed is analysed again.
+ */
+class BatchAnalyzer @JvmOverloads constructor(
+    context: Context,
+    private val sdk: CropSDK,
+    private val checkpointFile: File,
+    private val queueCapacity: Int = DEFAULT_QUEUE_CAPACITY
+) {
+
+    private val appContext = context.applicationContext
+    private val TAG = "BatchAnalyzer"
+
+    @Volatile
+    private var cancelled = false
+
+    /**
+     * Analyses [uris] in order, blocking until all are done or [cancel] is called. Images that
+     * fail to decode or analyse are reported with an error and do not stop the batch.
+     */
+    @JvmOverloads
+    fun run(uris: List<Uri>, listener: BatchListener? = null): BatchSummary {
+        val startTime = SystemClock.elapsedRealtime()
+
+        val checkpoint = BatchCheckpoint(checkpointFile)
+        val done = checkpoint.open(uris, ::stamp)
+        val results = arrayOfNulls<BatchItemResult>(uris.size)
+        done.forEach { results[it.index] = it }
+        val pending = uris.indices.filter { results[it] == null }
+        Log.d(TAG, "Batch of ${uris.size}: ${done.size} resumed from checkpoint, ${pending.size} to go")
+
+        val decoded = ArrayBlockingQueue<Item>(queueCapacity)
+        val prepared = ArrayBlockingQueue<Item>(queueCapacity)
+        val stages: ExecutorService = Executors.newFixedThreadPool(2) { task ->
+            Thread(task, "CropSDK-batch").apply { isDaemon = true }
+        }
+
+        var completed = done.size
+        var analyzed = 0
+        var failed = 0
+        try {
+            // Stage 1: decode at pipeline resolution
+            stages.execute {
+                try {
+                    forEachUntilCancelled(pending) { index ->
+                        val item = Item(index)
+                        try {
+                            item.stamp = stamp(uris[index])
+                            item.bitmap = SampledImageDecoder.decode(appContext, uris[index])
+                        } catch (e: Exception) {
+                            item.error = e
+                        }
+                        putOrRelease(decoded, item)
+                    }
+                } catch (e: InterruptedException) {
+                    // Keep the flag so the end marker below cannot block either
+                    Thread.currentThread().interrupt()
+                } finally {
+                    markEnd(decoded)
+                }
+            }
+            // Stage 2: copy pixels out and drop the bitmap; the SDK returns the pooled pixels
+            stages.execute {
+                try {
+                    forEachUntilCancelled(decoded) { item ->
+                        item.bitmap?.let {
+                            item.pixels = ImageUtils.toPixels(it, CropMemory.pixels)
+                            CropMemory.bitmaps.recycle(it)
+                            item.bitmap = null
+                        }
+                        putOrRelease(prepared, item)
+                    }
+                } catch (e: InterruptedException) {
+                    Thread.currentThread().interrupt()
+                } finally {
+                    markEnd(prepared)
+                }
+            }
+
+            // Stage 3: inference on this thread
+            forEachUntilCancelled(prepared) { item ->
+                val pixels = item.pixels
+                val result = try {
+                    if (pixels != null) BatchItemResult(item.index, uris[item.index], sdk.analyze(pixels), null)
+                    else BatchItemResult(item.index, uris[item.index], null, item.error?.toString())
+                } catch (e: Exception) {
+                    BatchItemResult(item.index, uris[item.index], null, e.toString())
+                }
+
+                checkpoint.append(result, item.stamp)
+                results[item.index] = result
+                completed++
+                if (result.error == null) analyzed++ else failed++
+                listener?.onItem(result, completed, uris.size)
+            }
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            cancelled = true
+        } finally {
+            stages.shutdownNow()
+            // Images still queued on cancel or failure go back to the pools; the stages must
+            // stop first so none is queued after the drain
+            awaitStages(stages)
+            drain(decoded)
+            drain(prepared)
+            checkpoint.close()
+            cancelled = false
+        }
+
+        val summary = BatchSummary(
+            total = uris.size,
+            analyzed = analyzed,
+            failed = failed,
+            resumed = done.size,
+            isComplete = completed == uris.size,
+            elapsedMs = SystemClock.elapsedRealtime() - startTime,
+            results = results.filterNotNull()
+        )
+        Log.d(TAG, "Batch finished: $summary")
+        return summary
+    }
+
+    /**
+     * Analyses every image file directly inside [directory], in file name order.
+     */
+    @JvmOverloads
+    fun runDirectory(directory: File, listener: BatchListener? = null): BatchSummary {
+        val files = directory.listFiles { f -> f.isFile && f.extension.lowercase() in IMAGE_EXTENSIONS }
+            ?.sortedBy { it.name }
+            .orEmpty()
+        return run(files.map { Uri.fromFile(it) }, listener)
+    }
+
+    /**
+     * Stops the running batch after the image currently in inference, or the next [run] before
+     * its first image if none is running. Progress so far stays in the checkpoint.
+     */
+    fun cancel() {
+        cancelled = true
+    }
+
+    /**
+     * Forgets all progress, so the next [run] starts from the first image.
+     */
+    fun clearCheckpoint() {
+        checkpointFile.delete()
+    }
+
+    private fun putOrRelease(queue: BlockingQueue<Item>, item: Item) {
+        try {
+            queue.put(item)
+        } catch (e: InterruptedException) {
+            release(item)
+            throw e
+        }
+    }
+
+    // Once the batch is stopping nobody may take from the queue again; shutdownNow ends the wait
+    private fun markEnd(queue: BlockingQueue<Item>) {
+        try {
+            queue.put(END)
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+    }
+
+    // Waits even if this thread is interrupted, then restores the flag
+    private fun awaitStages(stages: ExecutorService) {
+        var interrupted = false
+        while (true) {
+            try {
+                if (stages.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS)) break
+            } catch (e: InterruptedException) {
+                interrupted = true
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt()
+    }
+
+    private fun drain(queue: BlockingQueue<Item>) {
+        while (true) release(queue.poll() ?: return)
+    }
+
+    private fun release(item: Item) {
+        item.bitmap?.let { CropMemory.bitmaps.recycle(it) }
+        item.pixels?.let { CropMemory.pixels.release(it.argb) }
+        item.bitmap = null
+        item.pixels = null
+    }
+
+    private inline fun <T> forEachUntilCancelled(items: List<T>, action: (T) -> Unit) {
+        for (item in items) {
+            if (cancelled) return
+            action(item)
+        }
+    }
+
+    private inline fun forEachUntilCancelled(queue: BlockingQueue<Item>, action: (Item) -> Unit) {
+        while (!cancelled) {
+            val item = queue.take()
+            if (item === END) return
+            action(item)
+        }
+    }
+
+    /**
+     * Size and modification time of the file behind [uri], as far as its provider tells; a
+     * checkpoint record only counts while this is unchanged.
+     */
+    private fun stamp(uri: Uri): String {
+        if (uri.scheme == ContentResolver.SCHEME_FILE) {
+            val file = File(uri.path ?: return "")
+            return "${file.length()}:${file.lastModified()}"
+        }
+        return try {
+            appContext.contentResolver.query(uri, null, null, null, null)?.use { cursor ->
+                if (!cursor.moveToFirst()) return@use ""
+                fun column(name: String): Long {
+                    val index = cursor.getColumnIndex(name)
+                    return if (index >= 0 && !cursor.isNull(index)) cursor.getLong(index) else -1L
+                }
+                val modified = column(DocumentsContract.Document.COLUMN_LAST_MODIFIED).takeIf { it >= 0 }
+                    ?: column(MediaStore.MediaColumns.DATE_MODIFIED)
+                "${column(OpenableColumns.SIZE)}:$modified"
+            } ?: ""
+        } catch (e: RuntimeException) {
+            Log.w(TAG, "No file details for $uri", e)
+            ""
+        }
+    }
+
+    private class Item(val index: Int) {
+        var stamp = ""
+        var bitmap: Bitmap? = null
+        var pixels: ImagePixels? = null
+        var error: Exception? = null
+    }
+
+    companion object {
+        private const val DEFAULT_QUEUE_CAPACITY = 4
+        private val IMAGE_EXTENSIONS = setOf("jpg", "jpeg", "png", "webp", "heic", "heif")
+
+        // Marks the end of a stage's output
+        private val END = Item(-1)
+    }
+}
+
+/**
+ * Outcome for one image of a batch: either [result] or an [error] description.
+ */
+data class BatchItemResult(
+    val index: Int,
+    val uri: Uri,
+    val result: AnalysisResult?,
+    val error: String?
+)
+
+/**
+ * [analyzed] and [failed] count this run only; [resumed] images were already in the checkpoint.
+ * [results] covers both, in input order.
+ */
+data class BatchSummary(
+    val total: Int,
+    val analyzed: Int,
+    val failed: Int,
+    val resumed: Int,
+    val isComplete: Boolean,
+    val elapsedMs: Long,
+    val results: List<BatchItemResult>
+) {
+    /** Throughput of this run; images resumed from the checkpoint are not counted. */
+    val imagesPerMinute: Float
+        get() = if (elapsedMs > 0) (analyzed + failed) * 60_000f / elapsedMs else 0f
+
+    override fun toString(): String =
+        "BatchSummary(total=$total, analyzed=$analyzed, failed=$failed, resumed=$resumed, complete=$isComplete, elapsedMs=$elapsedMs)"
+}
+
+fun interface BatchListener {
+    fun onItem(item: BatchItemResult, completed: Int, total: Int)
+}
+//BatchCheckpoint.kt
+package com.example.cropanalysissdk
+
+import android.net.Uri
+import android.util.Log
+import java.io.BufferedInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.RandomAccessFile
+
+/**
+ * Append-only progress log for [BatchAnalyzer]. Each finished image is one record: URI, a stamp
+ * of the file (size and modification time), and the encoded [AnalysisResult] or error. Records
+ * are synced to disk as they are written, and a torn record at the tail (process killed
+ * mid-write) is cut off on [open].
+ *
+ * Records are matched by URI, not by position, so a folder that gained or lost photos since
+ * the last run still resumes.
+ */
+internal class BatchCheckpoint(private val file: File) {
+
+    private val TAG = "BatchCheckpoint"
+
+    private var out: FileOutputStream? = null
+
+    /**
+     * Returns the records for URIs in [uris] whose file still has the stamp [stampOf] gives,
+     * indexed by their position in [uris], and prepares the file for appending. Records for
+     * other URIs stay in the file but are not returned; a changed file is analysed again.
+     */
+    fun open(uris: List<Uri>, stampOf: (Uri) -> String): List<BatchItemResult> {
+        val positions = HashMap<Uri, Int>(uris.size * 2)
+        uris.forEachIndexed { index, uri -> positions[uri] = index }
+        // A later record for the same URI replaces an earlier one
+        val done = HashMap<Int, BatchItemResult>()
+        var validBytes = 0L
+
+        if (file.exists()) {
+            try {
+                DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                    if (input.readInt() != MAGIC) throw IOException("Unknown checkpoint format")
+                    validBytes = HEADER_BYTES.toLong()
+                    while (true) {
+                        val length = input.readInt()
+                        // A garbage length can only come from a torn tail
+                        if (length !in 0..MAX_RECORD_BYTES) throw EOFException()
+                        val record = ByteArray(length)
+                        input.readFully(record)
+                        validBytes += 4 + length
+
+                        val (uri, stamp, item) = decode(record)
+                        val index = positions[uri] ?: continue
+                        if (stamp == stampOf(uri)) done[index] = item.copy(index = index) else done.remove(index)
+                    }
+                }
+            } catch (e: EOFException) {
+                // End of the log, possibly after a torn record
+            } catch (e: IOException) {
+                Log.w(TAG, "Discarding checkpoint ${file.name}", e)
+                done.clear()
+                validBytes = 0
+            }
+        }
+
+        if (validBytes == 0L) {
+            file.parentFile?.mkdirs()
+            DataOutputStream(FileOutputStream(file)).use { it.writeInt(MAGIC) }
+        } else {
+            RandomAccessFile(file, "rw").use { it.setLength(validBytes) }
+        }
+        out = FileOutputStream(file, true)
+        return done.values.sortedBy { it.index }
+    }
+
+    /**
+     * Records [item], whose file had [stamp] when it was read.
+     */
+    fun append(item: BatchItemResult, stamp: String) {
+        val stream = out ?: return
+        try {
+            val record = encode(item, stamp)
+            val framed = DataOutputStream(stream)
+            framed.writeInt(record.size)
+            framed.write(record)
+            framed.flush()
+            stream.fd.sync()
+        } catch (e: IOException) {
+            // Losing a checkpoint only costs re-analysing this image after a restart
+            Log.w(TAG, "Failed to checkpoint image ${item.index}", e)
+        }
+    }
+
+    fun close() {
+        out?.close()
+        out = null
+    }
+
+    private fun encode(item: BatchItemResult, stamp: String): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { data ->
+            data.writeUTF(item.uri.toString())
+            data.writeUTF(stamp)
+            val result = item.result
+            if (result != null) {
+                data.writeBoolean(true)
+                AnalysisResultCodec.write(data, result)
+            } else {
+                data.writeBoolean(false)
+                data.writeUTF(item.error.orEmpty())
+            }
+        }
+        return bytes.toByteArray()
+    }
+
+    // The item's index is filled in by open()
+    private fun decode(record: ByteArray): Triple<Uri, String, BatchItemResult> {
+        DataInputStream(record.inputStream()).use { data ->
+            val uri = Uri.parse(data.readUTF())
+            val stamp = data.readUTF()
+            val item = if (data.readBoolean()) {
+                BatchItemResult(-1, uri, AnalysisResultCodec.read(data), null)
+            } else {
+                BatchItemResult(-1, uri, null, data.readUTF())
+            }
+            return Triple(uri, stamp, item)
+        }
+    }
+
+    companion object {
+        // Version 1 checkpoints (matched by position) are discarded once
+        private const val MAGIC = 0x43534232 // "CSB2"
+        private const val HEADER_BYTES = 4
+        private const val MAX_RECORD_BYTES = 1 shl 20
+    }
+}
+
+//TiledAnalyzer.kt
+package com.example.cropanalysissdk
+
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.BitmapRegionDecoder
+import android.graphics.Rect
+import android.os.Build
+import android.os.ParcelFileDescriptor
+import android.os.SystemClock
+import java.io.IOException
+import java.util.concurrent.CancellationException
+
+/**
+ * Tiling for [CropSDK.analyzeTiled].
+ *
+ * @param tileSize side of one tile in source pixels; each tile is one model input, like a grid
+ * cell of a normal photo
+ * @param regionTiles side of one map region in aligned tiles (clamped to 1-4), the unit votes
+ * are aggregated over
+ * @param overlap also score tiles shifted by half a tile, like the offset grid
+ */
+data class TileOptions @JvmOverloads constructor(
+    val tileSize: Int = 1024,
+    val regionTiles: Int = 4,
+    val overlap: Boolean = true
+)
+
+/**
+ * Voted crops of one map region. [bounds] are source pixels; every tile whose centre lies
+ * inside votes here. [CropDetection.regionMask] bit i is aligned tile i of the region (row-major),
+ * bit `regionTiles²` + i the offset tile i.
+ */
+data class MapRegion(
+    val row: Int,
+    val column: Int,
+    val bounds: GridRegion,
+    val tilesRun: Int,
+    val tilesBarren: Int,
+    val detections: List<CropDetection>
+) {
+    val isBarren: Boolean
+        get() = tilesRun > 0 && tilesBarren == tilesRun
+}
+
+/**
+ * [overall] is steps 1-6 for the whole image: fallow verdict and full-image crop from an
+ * overview decode, voting over every tile. [regions] are row-major, [regionColumns] per row.
+ */
+data class TiledAnalysisResult(
+    val width: Int,
+    val height: Int,
+    val overall: AnalysisResult,
+    val regions: List<MapRegion>,
+    val regionColumns: Int
+)
+
+/**
+ * Analyzes images too large to decode whole, e.g. orthomosaics and drone surveys.
+ *
+ * Tiles are streamed from the file with [BitmapRegionDecoder], [TILE_BATCH] at a time, into one
+ * reused bitmap and pixel buffer; with the small overview decode (at most [MAX_OVERVIEW_PIXELS])
+ * that is all the pixel memory used, whatever the image size. All three come from
+ * [CropMemory]'s pools. Each tile is subsampled while decoding to about the crop model's input
+ * size and goes through the barren and crop models like a grid cell; tile votes are then
+ * aggregated per [MapRegion] and for the whole image.
+ *
+ * JPEG, PNG, WebP and HEIF only (what [BitmapRegionDecoder] reads); GeoTIFF mosaics need
+ * converting first. EXIF orientation is not applied.
+ */
+internal class TiledAnalyzer(
+    private val backend: InferenceBackend,
+    options: TileOptions
+) {
+
+    private val tileSize = options.tileSize.coerceAtLeast(CROP_INPUT_SIZE)
+    private val regionTiles = options.regionTiles.coerceIn(1, 4)
+    private val overlap = options.overlap
+
+    private val CONF_THRESH = VotingRules.CONF_THRESH
+
+    private class Tile(val rect: Rect, val region: Int, val location: String, val bit: Int, val aligned: Boolean)
+
+    fun run(file: ParcelFileDescriptor, isCancelled: () -> Boolean): TiledAnalysisResult {
+        val startTime = SystemClock.elapsedRealtime()
+        val decoder = newDecoder(file)
+        try {
+            return analyze(decoder, startTime, isCancelled)
+        } finally {
+            decoder.recycle()
+        }
+    }
+
+    private fun analyze(decoder: BitmapRegionDecoder, startTime: Long, isCancelled: () -> Boolean): TiledAnalysisResult {
+        val width = decoder.width
+        val height = decoder.height
+
+        // 1-2. Fallow verdict and full-image crop on an overview at photo resolution
+        val overview = decodeOverview(decoder)
+        val (barrenVerdict, fullCrop) = try {
+            Pair(backend.isBarren(overview), backend.classifyCrop(overview))
+        } finally {
+            CropMemory.pixels.release(overview.argb)
+        }
+        var (isGlobalBarren, barrenConf) = barrenVerdict
+        val (fullCropName, fullCropConf) = fullCrop
+        // Same false-positive rule as the photo pipeline
+        if (isGlobalBarren && fullCropConf > 0.90f) isGlobalBarren = false
+
+        // 3. Tile pass
+        val columns = ceilDiv(width, tileSize)
+        val rows = ceilDiv(height, tileSize)
+        val regionColumns = ceilDiv(columns, regionTiles)
+        val regionRows = ceilDiv(rows, regionTiles)
+        val regionCount = regionColumns * regionRows
+
+        val detections = Array(regionCount) { mutableListOf<CropDetection>() }
+        val tilesRun = IntArray(regionCount)
+        val tilesBarren = IntArray(regionCount)
+
+        val sampleSize = sampleSizeFor(tileSize)
+        val side = ceilDiv(tileSize, sampleSize)
+        val bitmap = CropMemory.bitmaps.acquire(side, side)
+        val atlas = CropMemory.pixels.acquire(TILE_BATCH * side * side)
+        val decodeOptions = BitmapFactory.Options().apply {
+            inSampleSize = sampleSize
+            inPreferredConfig = Bitmap.Config.ARGB_8888
+            inMutable = true
+            inBitmap = bitmap
+        }
+
+        try {
+            val batch = ArrayList<Tile>(TILE_BATCH)
+            val flush = {
+                checkCancelled(isCancelled)
+                scoreBatch(decoder, batch, decodeOptions, bitmap, atlas, side, sampleSize, detections, tilesRun, tilesBarren)
+                batch.clear()
+            }
+            forEachTile(width, height, columns, rows, regionColumns) { tile ->
+                batch.add(tile)
+                if (batch.size == TILE_BATCH) flush()
+            }
+            if (batch.isNotEmpty()) flush()
+        } finally {
+            CropMemory.bitmaps.recycle(bitmap)
+            CropMemory.pixels.release(atlas)
+        }
+
+        // 4. Votes per map region, then over the whole image
+        val regions = List(regionCount) { index ->
+            val row = index / regionColumns
+            val column = index % regionColumns
+            val span = regionTiles * tileSize
+            val left = column * span
+            val top = row * span
+            MapRegion(
+                row, column,
+                GridRegion(left, top, minOf(span, width - left), minOf(span, height - top)),
+                tilesRun[index], tilesBarren[index],
+                VotingEngine.vote(detections[index], fullCropName)
+            )
+        }
+        val finalResults = VotingEngine.vote(detections.flatMap { list -> list.map { it.copy(regionMask = 0) } }, fullCropName)
+
+        // 5-6. Override and fallback as for a photo
+        VotingEngine.resolve(finalResults, fullCropName, fullCropConf, isGlobalBarren)
+
+        val overall = AnalysisResult(
+            isBarren = isGlobalBarren,
+            barrenConfidence = barrenConf,
+            fullImageAnalysis = CropDetection(fullCropName, fullCropConf, 1, "Entire Field", "Full-Image-Prior"),
+            gridDetections = finalResults,
+            executionTimeMs = SystemClock.elapsedRealtime() - startTime
+        )
+        return TiledAnalysisResult(width, height, overall, regions, regionColumns)
+    }
+
+    /**
+     * Aligned tiles row by row, each row followed by the offset tiles centred on its bottom
+     * corners, so tiles stream down the file. Slivers narrower than a quarter tile are skipped.
+     */
+    private inline fun forEachTile(width: Int, height: Int, columns: Int, rows: Int, regionColumns: Int, action: (Tile) -> Unit) {
+        val minSide = tileSize / 4
+        val offsetBase = regionTiles * regionTiles
+        for (ty in 0 until rows) {
+            for (tx in 0 until columns) {
+                val rect = clip(tx * tileSize, ty * tileSize, width, height)
+                if (rect.width() < minSide || rect.height() < minSide) continue
+                val region = (ty / regionTiles) * regionColumns + tx / regionTiles
+                action(Tile(rect, region, regionName(ty / regionTiles, tx / regionTiles), (ty % regionTiles) * regionTiles + tx % regionTiles, true))
+            }
+            if (!overlap || ty == rows - 1) continue
+            for (tx in 0 until columns - 1) {
+                val rect = clip(tx * tileSize + tileSize / 2, ty * tileSize + tileSize / 2, width, height)
+                if (rect.width() < minSide || rect.height() < minSide) continue
+                // The centre sits on the corner shared by aligned tiles (tx, ty) .. (tx + 1, ty + 1)
+                val cx = tx + 1
+                val cy = ty + 1
+                val region = (cy / regionTiles) * regionColumns + cx / regionTiles
+                action(Tile(rect, region, regionName(cy / regionTiles, cx / regionTiles), offsetBase + (cy % regionTiles) * regionTiles + cx % regionTiles, false))
+            }
+        }
+    }
+
+    /**
+     * Decodes [tiles] side by side into [atlas] and runs both models over them as one batch.
+     */
+    private fun scoreBatch(
+        decoder: BitmapRegionDecoder,
+        tiles: List<Tile>,
+        decodeOptions: BitmapFactory.Options,
+        bitmap: Bitmap,
+        atlas: IntArray,
+        side: Int,
+        sampleSize: Int,
+        detections: Array<MutableList<CropDetection>>,
+        tilesRun: IntArray,
+        tilesBarren: IntArray
+    ) {
+        val stride = TILE_BATCH * side
+        val regions = tiles.mapIndexed { slot, tile ->
+            decoder.decodeRegion(tile.rect, decodeOptions)
+            // The reused bitmap keeps its size; only the top-left part holds this tile
+            val w = (tile.rect.width() / sampleSize).coerceIn(1, side)
+            val h = (tile.rect.height() / sampleSize).coerceIn(1, side)
+            bitmap.getPixels(atlas, slot * side, stride, 0, 0, w, h)
+            GridRegion(slot * side, 0, w, h)
+        }
+        val image = ImagePixels(stride, side, atlas)
+
+        val barrenResults = backend.isBarrenBatch(image, regions)
+        val cropSlots = tiles.indices.filter { !barrenResults[it].first }
+        val cropResults = backend.classifyCropBatch(image, cropSlots.map { regions[it] })
+
+        tiles.forEach { tilesRun[it.region]++ }
+        tiles.indices.filter { barrenResults[it].first }.forEach { tilesBarren[tiles[it].region]++ }
+        cropSlots.forEachIndexed { i, slot ->
+            val (crop, conf) = cropResults[i]
+            if (conf >= CONF_THRESH) {
+                val tile = tiles[slot]
+                detections[tile.region].add(
+                    CropDetection(crop, conf, 1, tile.location, if (tile.aligned) "Tile-Aligned" else "Tile-Offset", 1 shl tile.bit)
+                )
+            }
+        }
+    }
+
+    private fun decodeOverview(decoder: BitmapRegionDecoder): ImagePixels {
+        val shortSide = minOf(decoder.width, decoder.height)
+        val target = if (CropMemory.isLowMemory) CropMemory.LOW_MEMORY_SHORT_SIDE else SampledImageDecoder.TARGET_SHORT_SIDE
+        var sampleSize = 1
+        while (shortSide / (sampleSize * 2) >= target) sampleSize *= 2
+        // A long strip would still decode huge at that size; cap the pixel count as well
+        val maxPixels = if (CropMemory.isLowMemory) MAX_OVERVIEW_PIXELS / 2 else MAX_OVERVIEW_PIXELS
+        while (sampledPixels(decoder, sampleSize) > maxPixels) sampleSize *= 2
+
+        val options = BitmapFactory.Options().apply {
+            inSampleSize = sampleSize
+            inPreferredConfig = Bitmap.Config.ARGB_8888
+        }
+        val overview = decoder.decodeRegion(Rect(0, 0, decoder.width, decoder.height), options)
+            ?: throw IOException("Unsupported image")
+        try {
+            return ImageUtils.toPixels(overview, CropMemory.pixels)
+        } finally {
+            overview.recycle()
+        }
+    }
+
+    // Decoders round sampled sizes up
+    private fun sampledPixels(decoder: BitmapRegionDecoder, sampleSize: Int): Long =
+        ceilDiv(decoder.width, sampleSize).toLong() * ceilDiv(decoder.height, sampleSize)
+
+    // Largest power of two that still leaves a tile at least the crop model's input size
+    private fun sampleSizeFor(tileSize: Int): Int {
+        var sampleSize = 1
+        while (tileSize / (sampleSize * 2) >= CROP_INPUT_SIZE) sampleSize *= 2
+        return sampleSize
+    }
+
+    private fun clip(left: Int, top: Int, width: Int, height: Int): Rect {
+        return Rect(left, top, minOf(left + tileSize, width), minOf(top + tileSize, height))
+    }
+
+    private fun checkCancelled(isCancelled: () -> Boolean) {
+        if (isCancelled()) throw CancellationException("Tiled analysis cancelled")
+    }
+
+    companion object {
+        /** Tiles decoded and scored per model call. */
+        const val TILE_BATCH = 4
+
+        private const val CROP_INPUT_SIZE = 260
+
+        /** Overview pixels at most, twice a 780x1040 photo (about 6.5 MB ARGB); half in low memory. */
+        const val MAX_OVERVIEW_PIXELS = 2L * 780 * 1040
+
+        private fun ceilDiv(a: Int, b: Int): Int = (a + b - 1) / b
+
+        // 1-based, e.g. "Region 2-3" = second row, third column
+        private fun regionName(row: Int, column: Int): String = "Region ${row + 1}-${column + 1}"
+
+        @Throws(IOException::class)
+        fun newDecoder(file: ParcelFileDescriptor): BitmapRegionDecoder {
+            val decoder = if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                BitmapRegionDecoder.newInstance(file)
+            } else {
+                @Suppress("DEPRECATION")
+                BitmapRegionDecoder.newInstance(file.fileDescriptor, false)
+            }
+            return decoder ?: throw IOException("Unsupported image")
+        }
+    }
+}
+
+//LiveCropAnalyzer.kt
+package com.example.cropanalysissdk
+
+import android.os.SystemClock
+import android.util.Size
+import androidx.camera.core.ImageAnalysis
+import androidx.camera.core.ImageProxy
+import java.util.concurrent.Executor
+import kotlin.math.abs
+
+/**
+ * CameraX analyzer that keeps [CropSDK] running on the live preview.
+ *
+ * Frames are converted from YUV_420_888 straight into [ImagePixels] at analysis resolution (no
+ * JPEG or Bitmap round trip). A 16x16 luma signature is compared with the last analysed frame.
+ * While the camera barely moves, the previous result is re-delivered instead of running the
+ * models again, at most [maxReuseMs] in a row. Pair it with [buildUseCase] so CameraX drops
+ * frames while an analysis is in flight.
+ */
+class LiveCropAnalyzer @JvmOverloads constructor(
+    private val sdk: CropSDK,
+    private val callbackExecutor: Executor,
+    private val listener: LiveAnalysisListener,
+    private val maxSide: Int = DEFAULT_MAX_SIDE,
+    private val reuseThreshold: Float = DEFAULT_REUSE_THRESHOLD,
+    private val maxReuseMs: Long = DEFAULT_MAX_REUSE_MS
+) : ImageAnalysis.Analyzer {
+
+    private val converter = YuvConverter()
+
+    private val signature = IntArray(SIGNATURE_SIZE * SIGNATURE_SIZE)
+    private val lastSignature = IntArray(SIGNATURE_SIZE * SIGNATURE_SIZE)
+    private var lastResult: AnalysisResult? = null
+    private var lastAnalysedAt = 0L
+
+    override fun analyze(image: ImageProxy) {
+        try {
+            lumaSignature(image, signature)
+
+            val previous = lastResult
+            val now = SystemClock.elapsedRealtime()
+            if (previous != null && now - lastAnalysedAt < maxReuseMs && difference(signature, lastSignature) < reuseThreshold) {
+                deliver(LiveAnalysisResult(previous, image.imageInfo.timestamp, true))
+                return
+            }
+
+            val pixels = converter.convert(image, maxSide)
+            val result = sdk.analyzeFrame(pixels)
+
+            signature.copyInto(lastSignature)
+            lastResult = result
+            lastAnalysedAt = now
+            deliver(LiveAnalysisResult(result, image.imageInfo.timestamp, false))
+        } finally {
+            image.close()
+        }
+    }
+
+    /**
+     * Forgets the last result, e.g. after the user switches plots.
+     */
+    fun reset() {
+        lastResult = null
+    }
+
+    private fun deliver(result: LiveAnalysisResult) {
+        callbackExecutor.execute { listener.onResult(result) }
+    }
+
+    /**
+     * Mean luma of a coarse grid straight from the Y plane.
+     */
+    private fun lumaSignature(image: ImageProxy, out: IntArray) {
+        val plane = image.planes[0]
+        val buffer = plane.buffer
+        val stepX = maxOf(1, image.width / SIGNATURE_SIZE)
+        val stepY = maxOf(1, image.height / SIGNATURE_SIZE)
+
+        for (gy in 0 until SIGNATURE_SIZE) {
+            for (gx in 0 until SIGNATURE_SIZE) {
+                // Average a 2x2 sample in the middle of each block to damp sensor noise
+                val x = minOf(gx * stepX + stepX / 2, image.width - 2)
+                val y = minOf(gy * stepY + stepY / 2, image.height - 2)
+                val i = y * plane.rowStride + x * plane.pixelStride
+                val sum = (buffer.get(i).toInt() and 0xFF) +
+                        (buffer.get(i + plane.pixelStride).toInt() and 0xFF) +
+                        (buffer.get(i + plane.rowStride).toInt() and 0xFF) +
+                        (buffer.get(i + plane.rowStride + plane.pixelStride).toInt() and 0xFF)
+                out[gy * SIGNATURE_SIZE + gx] = sum / 4
+            }
+        }
+    }
+
+    private fun difference(a: IntArray, b: IntArray): Float {
+        var total = 0
+        for (i in a.indices) total += abs(a[i] - b[i])
+        return total.toFloat() / a.size
+    }
+
+    companion object {
+        private const val SIGNATURE_SIZE = 16
+        const val DEFAULT_MAX_SIDE = 640
+
+        // Mean absolute luma difference (0-255) below which a frame counts as unchanged
+        const val DEFAULT_REUSE_THRESHOLD = 6f
+        const val DEFAULT_MAX_REUSE_MS = 2000L
+
+        /**
+         * ImageAnalysis use case configured for this analyzer: YUV output and keep-only-latest
+         * backpressure, so a slow analysis drops frames instead of queueing them.
+         */
+        @JvmStatic
+        fun buildUseCase(targetResolution: Size): ImageAnalysis {
+            return ImageAnalysis.Builder()
+                .setTargetResolution(targetResolution)
+                .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
+                .setOutputImageFormat(ImageAnalysis.OUTPUT_IMAGE_FORMAT_YUV_420_888)
+                .build()
+        }
+    }
+}
+
+/**
+ * One live update. [reused] is true when the frame matched the previous one and no inference ran.
+ */
+data class LiveAnalysisResult(
+    val result: AnalysisResult,
+    val frameTimestampNs: Long,
+    val reused: Boolean
+)
+
+fun interface LiveAnalysisListener {
+    fun onResult(result: LiveAnalysisResult)
+}
+
+//YuvConverter.kt
+package com.example.cropanalysissdk
+
+import androidx.camera.core.ImageProxy
+
+/**
+ * Converts YUV_420_888 camera frames to [ImagePixels], downsampling and applying the frame's
+ * rotation in the same pass. The output array is reused while the frame size stays the same,
+ * so one converter must not be shared between threads.
+ */
+internal class YuvConverter {
+
+    private var output: ImagePixels? = null
+
+    fun convert(image: ImageProxy, maxSide: Int): ImagePixels {
+        val step = maxOf(1, (maxOf(image.width, image.height) + maxSide - 1) / maxSide)
+        val srcW = image.width / step
+        val srcH = image.height / step
+
+        val rotation = image.imageInfo.rotationDegrees
+        val swap = rotation == 90 || rotation == 270
+        val outW = if (swap) srcH else srcW
+        val outH = if (swap) srcW else srcH
+
+        val target = output?.takeIf { it.width == outW && it.height == outH }
+            ?: ImagePixels(outW, outH, IntArray(outW * outH)).also { output = it }
+        val argb = target.argb
+
+        val yPlane = image.planes[0]
+        val uPlane = image.planes[1]
+        val vPlane = image.planes[2]
+        val yBuf = yPlane.buffer
+        val uBuf = uPlane.buffer
+        val vBuf = vPlane.buffer
+
+        for (oy in 0 until srcH) {
+            val sy = oy * step
+            val yRow = sy * yPlane.rowStride
+            val uvRow = (sy / 2) * uPlane.rowStride
+            val vRow = (sy / 2) * vPlane.rowStride
+
+            for (ox in 0 until srcW) {
+                val sx = ox * step
+                val y = yBuf.get(yRow + sx * yPlane.pixelStride).toInt() and 0xFF
+                val u = (uBuf.get(uvRow + (sx / 2) * uPlane.pixelStride).toInt() and 0xFF) - 128
+                val v = (vBuf.get(vRow + (sx / 2) * vPlane.pixelStride).toInt() and 0xFF) - 128
+
+                // Full-range BT.601, fixed point (x1024)
+                val r = clamp(y + ((1436 * v) shr 10))
+                val g = clamp(y - ((352 * u + 731 * v) shr 10))
+                val b = clamp(y + ((1815 * u) shr 10))
+
+                val dst = when (rotation) {
+                    90 -> ox * outW + (outW - 1 - oy)
+                    180 -> (outH - 1 - oy) * outW + (outW - 1 - ox)
+                    270 -> (outH - 1 - ox) * outW + oy
+                    else -> oy * outW + ox
+                }
+                argb[dst] = (0xFF shl 24) or (r shl 16) or (g shl 8) or b
+            }
+        }
+        return target
+    }
+
+    private fun clamp(c: Int): Int = if (c < 0) 0 else if (c > 255) 255 else c
+}
+
+//BufferPool.kt
+package com.example.cropanalysissdk
+
+import java.util.ArrayDeque
+import java.util.Collections
+import java.util.WeakHashMap
+
+/**
+ * Reuse pool for large per-analysis allocations, bucketed by power-of-two size so a request is
+ * only matched against buffers of about its size.
+ *
+ * At most [budgetBytes] stay pooled between uses; past that the largest buffers are dropped
+ * first. [release] only takes back what this pool handed out, so releasing a caller's own
+ * buffer is a no-op, and a lent buffer that is never released is simply garbage collected.
+ * Thread-safe.
+ */
+internal abstract class BufferPool<T : Any>(budgetBytes: Long) {
+
+    private val buckets = Array(BUCKETS) { ArrayDeque<T>() }
+
+    // Weak, so a lent buffer that is never released does not leak; arrays and bitmaps compare by identity
+    private val lent: MutableSet<T> = Collections.newSetFromMap(WeakHashMap())
+
+    var budgetBytes: Long = budgetBytes.coerceAtLeast(0)
+        @Synchronized set(value) {
+            field = value.coerceAtLeast(0)
+            trimTo(field)
+        }
+
+    /** Bytes currently pooled, not counting buffers that are lent out. */
+    var retainedBytes = 0L
+        @Synchronized get
+        private set
+
+    protected abstract fun sizeOf(item: T): Long
+
+    /** Whether [item] can go back into the pool at all. */
+    protected open fun isReusable(item: T): Boolean = true
+
+    /** Called for every item the pool drops. */
+    protected open fun discard(item: T) {}
+
+    /**
+     * Takes a pooled item of at least [bytes] that [accept]s, looking one bucket up at most so
+     * no more than about 4x the request stays tied up.
+     */
+    @Synchronized
+    protected fun take(bytes: Long, accept: (T) -> Boolean): T? {
+        val first = bucketOf(bytes)
+        for (bucket in first..minOf(first + 1, BUCKETS - 1)) {
+            val iterator = buckets[bucket].iterator()
+            while (iterator.hasNext()) {
+                val item = iterator.next()
+                if (sizeOf(item) >= bytes && accept(item)) {
+                    iterator.remove()
+                    retainedBytes -= sizeOf(item)
+                    lent.add(item)
+                    return item
+                }
+            }
+        }
+        return null
+    }
+
+    /** Marks a newly allocated [item] as lent, so [release] takes it back later. */
+    @Synchronized
+    protected fun lend(item: T): T {
+        lent.add(item)
+        return item
+    }
+
+    /**
+     * Returns [item] to the pool.
+     *
+     * @return false if [item] was not lent by this pool; the caller still owns it
+     */
+    @Synchronized
+    fun release(item: T): Boolean {
+        if (!lent.remove(item)) return false
+
+        val size = sizeOf(item)
+        if (size > budgetBytes || !isReusable(item)) {
+            discard(item)
+            return true
+        }
+        buckets[bucketOf(size)].addLast(item)
+        retainedBytes += size
+        trimTo(budgetBytes)
+        return true
+    }
+
+    /**
+     * Drops pooled items, largest first, until at most [bytes] remain. Lent items are not
+     * affected.
+     */
+    @Synchronized
+    fun trimTo(bytes: Long) {
+        var bucket = BUCKETS - 1
+        while (retainedBytes > bytes && bucket >= 0) {
+            val item = buckets[bucket].pollFirst()
+            if (item == null) {
+                bucket--
+                continue
+            }
+            retainedBytes -= sizeOf(item)
+            discard(item)
+        }
+    }
+
+    fun clear() = trimTo(0)
+
+    companion object {
+        private const val BUCKETS = 40
+
+        // Smallest power of two >= bytes, as an exponent
+        private fun bucketOf(bytes: Long): Int =
+            (64 - java.lang.Long.numberOfLeadingZeros(maxOf(bytes, 1L) - 1)).coerceAtMost(BUCKETS - 1)
+    }
+}
+
+/**
+ * [BufferPool] of ARGB pixel arrays. An array may be longer than requested, so [ImagePixels]
+ * built on one only use its first width x height ints.
+ */
+internal class PixelBufferPool(budgetBytes: Long) : BufferPool<IntArray>(budgetBytes) {
+
+    fun acquire(length: Int): IntArray = take(length * 4L) { it.size >= length } ?: lend(IntArray(length))
+
+    override fun sizeOf(item: IntArray): Long = item.size * 4L
+}
+
+//CropMemory.kt
+package com.example.cropanalysissdk
+
+import android.app.ActivityManager
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.content.res.Configuration
+import android.graphics.Bitmap
+import android.os.SystemClock
+import android.util.Log
+
+/**
+ * Bounded pools for the SDK's large per-analysis allocations (decoded photos, pixel arrays,
+ * tile bitmaps) and its reaction to memory pressure, shared by every [CropSDK] in the process.
+ *
+ * Back-to-back analyses reuse the same few buffers instead of leaving several MB each for the
+ * GC. At most [budgetBytes] stay pooled between analyses, half for pixel arrays and half for
+ * bitmaps. [install], called by every [CropSDK], registers for
+ * [ComponentCallbacks2.onTrimMemory]: the pools shrink with the trim level, and for
+ * [LOW_MEMORY_HOLD_MS] after the last pressure signal analyses follow a lower-memory plan.
+ * Photos decode to a [LOW_MEMORY_SHORT_SIDE] short side instead of
+ * [SampledImageDecoder.TARGET_SHORT_SIDE] (about half the pixels) and the models run at most
+ * [TfliteBackend.LOW_MEMORY_BATCH] cells per call, with their input buffers shrunk to match.
+ */
+object CropMemory : ComponentCallbacks2 {
+
+    /** Photo short side while memory is low: 2 x 260 px crop model input. */
+    const val LOW_MEMORY_SHORT_SIDE = 520
+
+    /** How long the lower-memory plan lasts after the last trim signal. */
+    const val LOW_MEMORY_HOLD_MS = 60_000L
+
+    private const val TAG = "CropMemory"
+    private const val DEFAULT_BUDGET = 24L shl 20
+    private const val MIN_BUDGET = 8L shl 20
+    private const val MAX_BUDGET = 64L shl 20
+
+    internal val pixels = PixelBufferPool(DEFAULT_BUDGET / 2)
+    internal val bitmaps = BitmapPool(DEFAULT_BUDGET - DEFAULT_BUDGET / 2)
+
+    private var installed = false
+    private var budgetSet = false
+    private var budget = DEFAULT_BUDGET
+
+    @Volatile
+    private var lowMemoryUntil = 0L
+
+    @Volatile
+    private var poolsReduced = false
+
+    /**
+     * Bytes kept pooled between analyses. Defaults to an eighth of the app's heap class
+     * (a sixteenth on low-RAM devices), 8-64 MB; 0 turns pooling off.
+     */
+    @JvmStatic
+    var budgetBytes: Long
+        get() = budget
+        @Synchronized set(value) {
+            budgetSet = true
+            applyBudget(value.coerceAtLeast(0))
+        }
+
+    /**
+     * Whether analyses currently follow the lower-memory plan. The pools get their full budget
+     * back once it ends.
+     */
+    @JvmStatic
+    val isLowMemory: Boolean
+        get() {
+            if (SystemClock.elapsedRealtime() < lowMemoryUntil) return true
+            if (poolsReduced) restorePools()
+            return false
+        }
+
+    /** Bytes currently pooled. */
+    @JvmStatic
+    val retainedBytes: Long
+        get() = pixels.retainedBytes + bitmaps.retainedBytes
 
-        return Pair(isBarren, confidence)
-    }
     /**
-     * Classifies the crop type from a bitmap.
-     *
-     * @return Pair(cropName: String, confidence: Float)
+     * Registers for memory callbacks on the application context and sizes the default budget
+     * from the device. Idempotent; [CropSDK] calls it.
      */
-    fun classifyCrop(bitmap: Bitmap): Pair<String, Float> {
-        val imageProcessor = ImageProcessor.Builder()
-            .add(ResizeOp(260, 260, ResizeOp.ResizeMethod.BILINEAR))
-            // NO NORMALIZATION: Input stays 0-255 (model has internal preprocessing)
-            .build()
+    @JvmStatic
+    @Synchronized
+    fun install(context: Context) {
+        if (installed) return
+        installed = true
 
-        var tImage = TensorImage(DataType.FLOAT32)
-        tImage.load(bitmap)
-        tImage = imageProcessor.process(tImage)
+        val appContext = context.applicationContext
+        if (!budgetSet) applyBudget(defaultBudget(appContext))
+        appContext.registerComponentCallbacks(this)
+    }
 
-        val outputBuffer = TensorBuffer.createFixedSize(intArrayOf(1, 4), DataType.FLOAT32)
-        cropInterpreter?.run(tImage.buffer, outputBuffer.buffer.rewind())
+    override fun onTrimMemory(level: Int) {
+        @Suppress("DEPRECATION")
+        when {
+            // Cached process or critical pressure: give everything back
+            level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND ||
+                level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL -> reduce(0L, level)
+            // UI went away but memory is fine: drop the spare half, keep the normal plan
+            level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN -> {
+                pixels.trimTo(pixels.budgetBytes / 2)
+                bitmaps.trimTo(bitmaps.budgetBytes / 2)
+            }
+            level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW -> reduce(budget / 4, level)
+            level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE -> reduce(budget / 2, level)
+        }
+    }
 
-        val probs = outputBuffer.floatArray
+    override fun onLowMemory() {
+        reduce(0L, ComponentCallbacks2.TRIM_MEMORY_COMPLETE)
+    }
 
-        var maxIdx = -1
-        var maxProb = -1.0f
+    override fun onConfigurationChanged(newConfig: Configuration) {}
 
-        for (i in probs.indices) {
-            // NaN Safety
-            if (probs[i].isNaN()) continue
+    // Pools hold at most keepBytes until the lower-memory plan ends
+    @Synchronized
+    private fun reduce(keepBytes: Long, level: Int) {
+        lowMemoryUntil = SystemClock.elapsedRealtime() + LOW_MEMORY_HOLD_MS
+        poolsReduced = true
+        pixels.budgetBytes = minOf(pixels.budgetBytes, keepBytes / 2)
+        bitmaps.budgetBytes = minOf(bitmaps.budgetBytes, keepBytes - keepBytes / 2)
+        Log.d(TAG, "Trim level $level: pools down to ${keepBytes shr 10} KB, low-memory plan on")
+    }
 
-            if (probs[i] > maxProb) {
-                maxProb = probs[i]
-                maxIdx = i
-            }
-        }
+    @Synchronized
+    private fun restorePools() {
+        if (!poolsReduced || SystemClock.elapsedRealtime() < lowMemoryUntil) return
+        poolsReduced = false
+        applyBudget(budget)
+    }
 
-        return if (maxIdx != -1 && maxProb > 0.0f) {
-            Pair(cropLabels[maxIdx], maxProb)
-        } else {
-            Pair("Unknown", 0f)
-        }
+    @Synchronized
+    private fun applyBudget(bytes: Long) {
+        budget = bytes
+        if (poolsReduced) return
+        pixels.budgetBytes = bytes / 2
+        bitmaps.budgetBytes = bytes - bytes / 2
     }
-}
 
-//AnalysisResult.kt
-package com.example.cropanalysissdk
+    private fun defaultBudget(context: Context): Long {
+        val activityManager = context.getSystemService(Context.ACTIVITY_SERVICE) as? ActivityManager
+            ?: return DEFAULT_BUDGET
+        val share = if (activityManager.isLowRamDevice) 16 else 8
+        return ((activityManager.memoryClass.toLong() shl 20) / share).coerceIn(MIN_BUDGET, MAX_BUDGET)
+    }
+}
 
 /**
- * The final result object containing all table data.
+ * [BufferPool] of mutable ARGB_8888 bitmaps, reused through [Bitmap.reconfigure] and as
+ * [android.graphics.BitmapFactory.Options.inBitmap] decode targets. Dropped bitmaps are
+ * recycled right away, so their pixel memory does not wait for the GC.
  */
-data class AnalysisResult(
-    // Status Column
-    val isBarren: Boolean,
-    val barrenConfidence: Float,
+internal class BitmapPool(budgetBytes: Long) : BufferPool<Bitmap>(budgetBytes) {
 
-    // Full Crop Result Column
-    val fullImageAnalysis: CropDetection,
+    /**
+     * A [width] x [height] bitmap, reusing a pooled one's memory when one is large enough.
+     */
+    fun acquire(width: Int, height: Int): Bitmap {
+        val reused = take(width * height * 4L) { true }
+        if (reused != null) {
+            reused.reconfigure(width, height, Bitmap.Config.ARGB_8888)
+            return reused
+        }
+        return lend(Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888))
+    }
 
-    // Detected Crops List (Grid Ensemble)
-    val gridDetections: List<CropDetection>,
+    /**
+     * A pooled bitmap with room for at least [bytes] to decode into, or null.
+     */
+    fun storage(bytes: Long): Bitmap? = take(bytes) { true }
 
-    // Performance
-    val executionTimeMs: Long
-)
+    /**
+     * Lets the pool take back a bitmap it did not allocate, e.g. a fresh decode.
+     */
+    fun adopt(bitmap: Bitmap): Bitmap = lend(bitmap)
 
-/**
- * Represents a single row in the result table.
- */
-data class CropDetection(
-    val cropName: String,
-    val confidence: Float,
-    val votes: Int,
-    val location: String, // e.g., "Top-Left", "Center"
-    val source: String    // "Full-Image-Prior", "Grid-Aligned", etc.
-)
+    /**
+     * [release]s [bitmap], or recycles it if the pool does not own it. For bitmaps the caller
+     * is done with either way.
+     */
+    fun recycle(bitmap: Bitmap) {
+        if (!release(bitmap)) bitmap.recycle()
+    }
+
+    override fun sizeOf(item: Bitmap): Long = item.allocationByteCount.toLong()
+
+    override fun isReusable(item: Bitmap): Boolean =
+        item.isMutable && !item.isRecycled && item.config == Bitmap.Config.ARGB_8888
+
+    override fun discard(item: Bitmap) {
+        item.recycle()
+    }
+}
 
 //ImageUtils.kt
   package com.example.cropanalysissdk
 
 import android.graphics.Bitmap
 import android.graphics.Color
+import android.os.Build
 
 object ImageUtils {
 
@@ -380,28 +5146,49 @@ object ImageUtils {
      * If offset=true, shifts the grid by 50% width/height.
      */
     fun splitBitmap(bitmap: Bitmap, rows: Int, cols: Int, offset: Boolean = false): List<Bitmap> {
-        val pieces = mutableListOf<Bitmap>()
-        val width = bitmap.width
-        val height = bitmap.height
+        return gridRegions(bitmap.width, bitmap.height, rows, cols, offset).map {
+            Bitmap.createBitmap(bitmap, it.left, it.top, it.width, it.height)
+        }
+    }
 
-        val cellW = width / cols
-        val cellH = height / rows
+    /**
+     * Same layout as [splitBitmap], but only returns the cell rectangles so callers can read
+     * the regions straight out of the source pixels without creating cell bitmaps.
+     */
+    fun gridRegions(width: Int, height: Int, rows: Int, cols: Int, offset: Boolean = false): List<GridRegion> =
+        GridLayout.regions(width, height, rows, cols, offset)
 
-        val startX = if (offset) cellW / 2 else 0
-        val startY = if (offset) cellH / 2 else 0
+    /**
+     * Copies the bitmap's pixels once so every later stage can read regions from the same array.
+     * Hardware bitmaps have no CPU-side pixels and are copied to ARGB_8888 first.
+     */
+    fun toPixels(bitmap: Bitmap): ImagePixels {
+        val source = softwareBitmap(bitmap)
 
-        for (r in 0 until rows) {
-            for (c in 0 until cols) {
-                val x = startX + (c * cellW)
-                val y = startY + (r * cellH)
+        val argb = IntArray(source.width * source.height)
+        source.getPixels(argb, 0, source.width, 0, 0, source.width, source.height)
+        return ImagePixels(source.width, source.height, argb)
+    }
 
-                // Ensure we don't go out of bounds
-                if (x + cellW <= width && y + cellH <= height) {
-                    pieces.add(Bitmap.createBitmap(bitmap, x, y, cellW, cellH))
-                }
-            }
+    /**
+     * [toPixels] into an array borrowed from [pool]; hand it back with [PixelBufferPool.release]
+     * once no stage reads the pixels any more.
+     */
+    internal fun toPixels(bitmap: Bitmap, pool: PixelBufferPool): ImagePixels {
+        val source = softwareBitmap(bitmap)
+
+        val argb = pool.acquire(source.width * source.height)
+        source.getPixels(argb, 0, source.width, 0, 0, source.width, source.height)
+        return ImagePixels(source.width, source.height, argb)
+    }
+
+    // Bitmap.Config.HARDWARE only exists from API 26; older bitmaps always have CPU-side pixels
+    private fun softwareBitmap(bitmap: Bitmap): Bitmap {
+        return if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && bitmap.config == Bitmap.Config.HARDWARE) {
+            bitmap.copy(Bitmap.Config.ARGB_8888, false)
+        } else {
+            bitmap
         }
-        return pieces
     }
 
     /**
@@ -412,11 +5199,11 @@ object ImageUtils {
         val totalPixels = 20 * 20 // Sample 400 pixels for speed
 
         val scaled = Bitmap.createScaledBitmap(bitmap, 20, 20, true)
+        val hsv = FloatArray(3)
 
         for (x in 0 until 20) {
             for (y in 0 until 20) {
                 val pixel = scaled.getPixel(x, y)
-                val hsv = FloatArray(3)
                 Color.colorToHSV(pixel, hsv)
 
                 val hue = hsv[0]
@@ -435,7 +5222,189 @@ object ImageUtils {
     /**
      * Maps grid index (0-8) to human readable location
      */
-    fun getGridLocationName(index: Int): String {
+    fun getGridLocationName(index: Int): String = GridLayout.locationName(index)
+}
+
+//SampledImageDecoder.kt
+package com.example.cropanalysissdk
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.ImageDecoder
+import android.net.Uri
+import android.os.Build
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import kotlin.math.ceil
+import kotlin.math.min
+
+/**
+ * Decodes photos straight to the resolution the pipeline can use, instead of full resolution.
+ *
+ * Grid cells are a third of the image per side and get resized to the crop model's 260x260
+ * input, so a short side above [TARGET_SHORT_SIDE] only adds pixels that are thrown away. A
+ * 12 MP capture decodes to about 1 MP here, always as a software ARGB_8888 bitmap so
+ * [ImageUtils.toPixels] never has to copy a HARDWARE one. Images smaller than the target are
+ * never upscaled.
+ */
+object SampledImageDecoder {
+
+    /** 3 grid cells x 260 px crop model input. */
+    const val TARGET_SHORT_SIDE = 780
+
+    @JvmStatic
+    @JvmOverloads
+    @Throws(IOException::class)
+    fun decode(context: Context, uri: Uri, targetShortSide: Int = TARGET_SHORT_SIDE): Bitmap {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            return decodeScaled(ImageDecoder.createSource(context.contentResolver, uri), targetShortSide)
+        }
+        val resolver = context.contentResolver
+        return decodeSampled(targetShortSide) { resolver.openInputStream(uri) ?: throw IOException("Cannot open $uri") }
+    }
+
+    @JvmStatic
+    @JvmOverloads
+    @Throws(IOException::class)
+    fun decode(file: File, targetShortSide: Int = TARGET_SHORT_SIDE): Bitmap {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            return decodeScaled(ImageDecoder.createSource(file), targetShortSide)
+        }
+        return decodeSampled(targetShortSide) { file.inputStream() }
+    }
+
+    /**
+     * API 28+: the decoder scales while decoding, so only the target-size bitmap is allocated.
+     */
+    private fun decodeScaled(source: ImageDecoder.Source, targetShortSide: Int): Bitmap {
+        return ImageDecoder.decodeBitmap(source) { decoder, info, _ ->
+            val width = info.size.width
+            val height = info.size.height
+            val shortSide = min(width, height)
+            if (shortSide > targetShortSide) {
+                val scale = targetShortSide.toFloat() / shortSide
+                decoder.setTargetSize(
+                    (width * scale).toInt().coerceAtLeast(1),
+                    (height * scale).toInt().coerceAtLeast(1)
+                )
+            }
+            decoder.allocator = ImageDecoder.ALLOCATOR_SOFTWARE
+        }
+    }
+
+    /**
+     * Older devices: a bounds-only pass, then a power-of-two [BitmapFactory.Options.inSampleSize]
+     * decode. The density fields make BitmapFactory scale the rest of the way down in the same
+     * pass. The decode reuses a bitmap from [CropMemory]'s pool when one is large enough, and
+     * the result can go back there.
+     */
+    private fun decodeSampled(targetShortSide: Int, open: () -> InputStream): Bitmap {
+        val bounds = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+        open().use { BitmapFactory.decodeStream(it, null, bounds) }
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) throw IOException("Unsupported image")
+
+        val shortSide = min(bounds.outWidth, bounds.outHeight)
+        var sampleSize = 1
+        while (shortSide / (sampleSize * 2) >= targetShortSide) sampleSize *= 2
+
+        val options = BitmapFactory.Options().apply {
+            inSampleSize = sampleSize
+            inPreferredConfig = Bitmap.Config.ARGB_8888
+            inMutable = true
+            val sampledShortSide = shortSide / sampleSize
+            if (sampledShortSide > targetShortSide) {
+                inScaled = true
+                inDensity = sampledShortSide
+                inTargetDensity = targetShortSide
+            }
+        }
+
+        // Upper bound of the output size (sampling rounds up, scaling to nearest)
+        val scale = if (options.inScaled) targetShortSide.toDouble() / options.inDensity else 1.0
+        val outWidth = ceil(ceil(bounds.outWidth.toDouble() / sampleSize) * scale).toLong() + 1
+        val outHeight = ceil(ceil(bounds.outHeight.toDouble() / sampleSize) * scale).toLong() + 1
+        val reuse = CropMemory.bitmaps.storage(outWidth * outHeight * 4)
+        if (reuse != null) {
+            options.inBitmap = reuse
+            try {
+                return open().use { BitmapFactory.decodeStream(it, null, options) }
+                    ?: throw IOException("Unsupported image")
+            } catch (e: IllegalArgumentException) {
+                // The pooled bitmap did not fit after all; decode into a new one
+                CropMemory.bitmaps.release(reuse)
+                options.inBitmap = null
+            }
+        }
+        val bitmap = open().use { BitmapFactory.decodeStream(it, null, options) }
+            ?: throw IOException("Unsupported image")
+        return CropMemory.bitmaps.adopt(bitmap)
+    }
+}
+
+//GridLayout.kt
+package com.example.cropanalysissdk
+
+/**
+ * The analysis grid, in plain integers so it runs anywhere (no android.graphics).
+ */
+object GridLayout {
+
+    /** Cells 0-8 are the aligned 3x3 grid; everything after is the offset grid. */
+    const val ALIGNED_CELLS = 9
+
+    /**
+     * Cell rectangles of a rows x cols grid over a width x height image.
+     * If offset=true, shifts the grid by 50% width/height; cells that would leave the image are
+     * dropped.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun regions(width: Int, height: Int, rows: Int, cols: Int, offset: Boolean = false): List<GridRegion> {
+        val regions = mutableListOf<GridRegion>()
+
+        val cellW = width / cols
+        val cellH = height / rows
+
+        val startX = if (offset) cellW / 2 else 0
+        val startY = if (offset) cellH / 2 else 0
+
+        for (r in 0 until rows) {
+            for (c in 0 until cols) {
+                val x = startX + (c * cellW)
+                val y = startY + (r * cellH)
+
+                // Ensure we don't go out of bounds
+                if (x + cellW <= width && y + cellH <= height) {
+                    regions.add(GridRegion(x, y, cellW, cellH))
+                }
+            }
+        }
+        return regions
+    }
+
+    /**
+     * The pipeline's grid: the aligned 3x3 cells followed by the offset ones.
+     */
+    @JvmStatic
+    fun analysisGrid(width: Int, height: Int): List<GridRegion> =
+        regions(width, height, 3, 3, false) + regions(width, height, 3, 3, true)
+
+    /**
+     * Indices of [analysisGrid] (of [gridSize] cells) from most to least informative when not
+     * all of them can run: centre, then the edge centres, corners and the offset cells.
+     * Every [GridDensity] is a prefix of this order.
+     */
+    @JvmStatic
+    fun budgetOrder(gridSize: Int): List<Int> =
+        intArrayOf(4, 1, 3, 5, 7, 0, 2, 6, 8).filter { it < gridSize } + (ALIGNED_CELLS until gridSize)
+
+    /**
+     * Maps grid index (0-8) to human readable location
+     */
+    @JvmStatic
+    fun locationName(index: Int): String {
         return when(index) {
             0 -> "Top-Left"
             1 -> "Top-Center"
@@ -451,6 +5420,290 @@ object ImageUtils {
     }
 }
 
+/**
+ * Grid layouts a latency-budgeted analysis can fall back to, densest first.
+ *
+ * @param cells length of the [GridLayout.budgetOrder] prefix the layout runs
+ */
+enum class GridDensity(val cells: Int) {
+    /** Aligned and offset cells, as without a budget */
+    FULL(Int.MAX_VALUE),
+    ALIGNED(9),
+    CENTER_CROSS(5),
+    CENTER(1),
+    /** Full-image pass only */
+    NONE(0)
+}
+
+//ImagePixels.kt
+package com.example.cropanalysissdk
+
+/**
+ * A decoded image as packed ARGB ints (same layout as [android.graphics.Bitmap.getPixels]).
+ * Only the first width x height ints are pixels; a pooled [argb] may be longer.
+ */
+class ImagePixels(
+    val width: Int,
+    val height: Int,
+    val argb: IntArray
+) {
+    val fullRegion: GridRegion
+        get() = GridRegion(0, 0, width, height)
+
+    /**
+     * Bilinear resize of [region] to [dstWidth] x [dstHeight] with half-pixel centres, clamped to
+     * the region edge, handing each output pixel's 0-255 RGB values to [write] in row-major order.
+     */
+    inline fun sampleBilinear(
+        region: GridRegion,
+        dstWidth: Int,
+        dstHeight: Int,
+        write: (Float, Float, Float) -> Unit
+    ) {
+        val src = argb
+        val stride = width
+        val maxX = region.width - 1
+        val maxY = region.height - 1
+        val scaleX = region.width.toFloat() / dstWidth
+        val scaleY = region.height.toFloat() / dstHeight
+
+        for (dy in 0 until dstHeight) {
+            val sy = ((dy + 0.5f) * scaleY - 0.5f).coerceIn(0f, maxY.toFloat())
+            val y0 = sy.toInt()
+            val y1 = if (y0 < maxY) y0 + 1 else maxY
+            val fy = sy - y0
+
+            val row0 = (region.top + y0) * stride + region.left
+            val row1 = (region.top + y1) * stride + region.left
+
+            for (dx in 0 until dstWidth) {
+                val sx = ((dx + 0.5f) * scaleX - 0.5f).coerceIn(0f, maxX.toFloat())
+                val x0 = sx.toInt()
+                val x1 = if (x0 < maxX) x0 + 1 else maxX
+                val fx = sx - x0
+
+                val p00 = src[row0 + x0]
+                val p01 = src[row0 + x1]
+                val p10 = src[row1 + x0]
+                val p11 = src[row1 + x1]
+
+                write(
+                    lerp2(p00 shr 16, p01 shr 16, p10 shr 16, p11 shr 16, fx, fy),
+                    lerp2(p00 shr 8, p01 shr 8, p10 shr 8, p11 shr 8, fx, fy),
+                    lerp2(p00, p01, p10, p11, fx, fy)
+                )
+            }
+        }
+    }
+}
+
+// Bilinear blend of the low byte of four packed channels
+@PublishedApi
+internal fun lerp2(c00: Int, c01: Int, c10: Int, c11: Int, fx: Float, fy: Float): Float {
+    val top = (c00 and 0xFF) + ((c01 and 0xFF) - (c00 and 0xFF)) * fx
+    val bottom = (c10 and 0xFF) + ((c11 and 0xFF) - (c10 and 0xFF)) * fx
+    return top + (bottom - top) * fy
+}
+
+/**
+ * A rectangle of an [ImagePixels], e.g. one grid cell.
+ */
+data class GridRegion(
+    val left: Int,
+    val top: Int,
+    val width: Int,
+    val height: Int
+)
+
+//RegionStats.kt
+package com.example.cropanalysissdk
+
+/**
+ * Summed-area tables over a thumbnail of the full image, so sky, brightness and vegetation
+ * statistics of any grid region cost O(1) instead of a per-cell scan.
+ *
+ * Built in one pass by point-sampling the source pixels down to at most [MAX_SIDE] per side.
+ */
+class RegionStats private constructor(
+    private val sourceWidth: Int,
+    private val sourceHeight: Int,
+    private val width: Int,
+    private val height: Int,
+    private val skySat: IntArray,
+    private val vegetationSat: IntArray,
+    private val brightnessSat: IntArray,
+    private val excessGreenSat: IntArray
+) {
+
+    /**
+     * Share of [region] that passes the original sky test (blue hue, or very bright and grey).
+     */
+    fun skyFraction(region: GridRegion): Float = mean(skySat, region)
+
+    /**
+     * Share of [region] whose excess-green index is above [VEGETATION_EXG].
+     */
+    fun vegetationFraction(region: GridRegion): Float = mean(vegetationSat, region)
+
+    /**
+     * Mean HSV value (max channel) of [region], 0-1.
+     */
+    fun meanBrightness(region: GridRegion): Float = mean(brightnessSat, region) / 255f
+
+    /**
+     * Mean excess-green index (2G - R - B) of [region], scaled to -2..2.
+     */
+    fun meanExcessGreen(region: GridRegion): Float = mean(excessGreenSat, region) / 255f
+
+    fun isMostlySky(region: GridRegion): Boolean = skyFraction(region) > SKY_FRACTION
+
+    /**
+     * Almost no green pixels and not sky: the models would call it barren anyway.
+     */
+    fun isBareSoil(region: GridRegion): Boolean {
+        return vegetationFraction(region) < BARE_SOIL_MAX_VEGETATION && skyFraction(region) < SKY_FRACTION
+    }
+
+    private fun mean(sat: IntArray, region: GridRegion): Float {
+        // Map the source rectangle onto thumbnail cells, keeping at least one cell
+        val x0 = (region.left.toLong() * width / sourceWidth).toInt().coerceIn(0, width - 1)
+        val y0 = (region.top.toLong() * height / sourceHeight).toInt().coerceIn(0, height - 1)
+        val x1 = ceilDiv((region.left + region.width).toLong() * width, sourceWidth).coerceIn(x0 + 1, width)
+        val y1 = ceilDiv((region.top + region.height).toLong() * height, sourceHeight).coerceIn(y0 + 1, height)
+
+        val stride = width + 1
+        val sum = sat[y1 * stride + x1] - sat[y0 * stride + x1] - sat[y1 * stride + x0] + sat[y0 * stride + x0]
+        return sum.toFloat() / ((x1 - x0) * (y1 - y0))
+    }
+
+    private fun ceilDiv(a: Long, b: Int): Int = ((a + b - 1) / b).toInt()
+
+    companion object {
+        private const val MAX_SIDE = 128
+        private const val SKY_FRACTION = 0.6f
+        private const val VEGETATION_EXG = 20
+        private const val BARE_SOIL_MAX_VEGETATION = 0.02f
+
+        fun compute(image: ImagePixels): RegionStats {
+            val scale = maxOf(1, (maxOf(image.width, image.height) + MAX_SIDE - 1) / MAX_SIDE)
+            val w = maxOf(1, image.width / scale)
+            val h = maxOf(1, image.height / scale)
+            val stride = w + 1
+
+            val sky = IntArray(stride * (h + 1))
+            val vegetation = IntArray(stride * (h + 1))
+            val brightness = IntArray(stride * (h + 1))
+            val excessGreen = IntArray(stride * (h + 1))
+
+            for (y in 0 until h) {
+                val srcRow = (y * scale + scale / 2) * image.width
+                var rowSky = 0
+                var rowVeg = 0
+                var rowBright = 0
+                var rowExg = 0
+
+                for (x in 0 until w) {
+                    val pixel = image.argb[srcRow + x * scale + scale / 2]
+                    val r = (pixel shr 16) and 0xFF
+                    val g = (pixel shr 8) and 0xFF
+                    val b = pixel and 0xFF
+                    val exg = 2 * g - r - b
+
+                    if (isSkyPixel(r, g, b)) rowSky++
+                    if (exg > VEGETATION_EXG) rowVeg++
+                    rowBright += maxOf(r, g, b)
+                    rowExg += exg
+
+                    // Row running sum plus the table entry above
+                    val i = (y + 1) * stride + (x + 1)
+                    sky[i] = sky[i - stride] + rowSky
+                    vegetation[i] = vegetation[i - stride] + rowVeg
+                    brightness[i] = brightness[i - stride] + rowBright
+                    excessGreen[i] = excessGreen[i - stride] + rowExg
+                }
+            }
+
+            return RegionStats(image.width, image.height, w, h, sky, vegetation, brightness, excessGreen)
+        }
+
+        /**
+         * Same rule as [ImageUtils.isMostlySky]: blue hue (190-250) OR very bright white/grey,
+         * computed from RGB without allocating an HSV array.
+         */
+        private fun isSkyPixel(r: Int, g: Int, b: Int): Boolean {
+            val max = maxOf(r, g, b)
+            val min = minOf(r, g, b)
+            val delta = max - min
+
+            val valBri = max / 255f
+            val sat = if (max == 0) 0f else delta.toFloat() / max
+            if (valBri > 0.9f && sat < 0.2f) return true
+            if (delta == 0) return false
+
+            var hue = when (max) {
+                r -> 60f * (g - b) / delta
+                g -> 60f * (b - r) / delta + 120f
+                else -> 60f * (r - g) / delta + 240f
+            }
+            if (hue < 0f) hue += 360f
+            return hue in 190f..250f
+        }
+    }
+}
+
+//TensorPreprocessor.kt
+package com.example.cropanalysissdk
+
+import java.nio.ByteBuffer
+import kotlin.math.roundToInt
+
+/**
+ * Fused crop → bilinear resize → normalize kernel.
+ *
+ * Reads a region straight from the source pixels and writes the model input (NHWC, RGB) at the
+ * buffer's current position in a single pass, replacing Bitmap.createBitmap plus the
+ * TensorImage/ResizeOp/NormalizeOp chain. Float models get floats, quantized models get their
+ * uint8/int8 codes directly.
+ */
+object TensorPreprocessor {
+
+    /**
+     * @param scale multiplier applied to each 0-255 channel value (1/255 for 0-1 models, 1 for raw)
+     */
+    fun writeRegion(image: ImagePixels, region: GridRegion, dstSize: Int, scale: Float, out: ByteBuffer) {
+        image.sampleBilinear(region, dstSize, dstSize) { r, g, b ->
+            out.putFloat(r * scale)
+            out.putFloat(g * scale)
+            out.putFloat(b * scale)
+        }
+    }
+
+    /**
+     * Quantized variant of [writeRegion]: each normalized value v is stored as
+     * round(v / [quantScale]) + [zeroPoint], clamped to the uint8 or int8 range.
+     */
+    fun writeRegionQuantized(
+        image: ImagePixels,
+        region: GridRegion,
+        dstSize: Int,
+        scale: Float,
+        quantScale: Float,
+        zeroPoint: Int,
+        signed: Boolean,
+        out: ByteBuffer
+    ) {
+        val factor = scale / quantScale
+        val lo = if (signed) -128 else 0
+        val hi = if (signed) 127 else 255
+
+        image.sampleBilinear(region, dstSize, dstSize) { r, g, b ->
+            out.put(((r * factor).roundToInt() + zeroPoint).coerceIn(lo, hi).toByte())
+            out.put(((g * factor).roundToInt() + zeroPoint).coerceIn(lo, hi).toByte())
+            out.put(((b * factor).roundToInt() + zeroPoint).coerceIn(lo, hi).toByte())
+        }
+    }
+}
+
 //build.gradle.kts
 plugins {
     id("com.android.library")
@@ -497,4 +5750,14 @@ dependencies {
     // Core Android libraries
     implementation("androidx.core:core-ktx:1.12.0")
     implementation("androidx.appcompat:appcompat:1.6.1")
+
+    // Coroutines (analyzeAsync Flow API)
+    implementation("org.jetbrains.kotlinx:kotlinx-coroutines-android:1.7.3")
+
+    // CameraX ImageAnalysis (LiveCropAnalyzer)
+    implementation("androidx.camera:camera-core:1.1.0")
+
+    // Local unit tests run on the JVM against Robolectric's Android framework
+    testImplementation("junit:junit:4.13.2")
+    testImplementation("org.robolectric:robolectric:4.11.1")
 }
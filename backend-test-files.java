@@ -0,0 +1,364 @@
+//ModelEngineReloadTest.kt
+package com.example.cropanalysissdk
+
+import android.content.Context
+import org.junit.Assert.assertEquals
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.RuntimeEnvironment
+import java.io.File
+import java.nio.ByteBuffer
+import java.security.MessageDigest
+
+/**
+ * [ModelEngine.reload] must ask [EngineTuner] again for the release it swaps in. The tunings
+ * come from [EngineTuner.override], so no model is benchmarked.
+ */
+@RunWith(RobolectricTestRunner::class)
+class ModelEngineReloadTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    private lateinit var context: Context
+    private val model: ByteBuffer = ByteBuffer.allocateDirect(16)
+
+    @Before
+    fun setUp() {
+        context = RuntimeEnvironment.getApplication()
+        EngineTuner.reset(context)
+        ModelStore(context).reset()
+    }
+
+    @Test
+    fun reloadTunesTheNewRelease() {
+        val requested = EngineConfig.autoTuned().resolved()
+
+        install(1)
+        EngineTuner.override(context, requested, FIRST)
+        val loaded = load(requested)
+        assertEquals(FIRST, loaded.tuning)
+
+        install(2)
+        EngineTuner.override(context, requested, SECOND)
+        // What reload() does: start again from the config as requested
+        assertEquals(SECOND, load(requested).tuning)
+        // The config the engine runs with already has a tuning, so it would never ask
+        assertEquals(FIRST, ModelEngine.tunedConfig(loaded) { fail("tuner asked"); null }.tuning)
+    }
+
+    private fun load(config: EngineConfig): EngineConfig {
+        val release = ModelStore(context).installed
+        return ModelEngine.tunedConfig(config) { EngineTuner.tuningFor(context, config, release, model, model) }
+    }
+
+    private fun install(version: Long) {
+        val directory = temp.newFolder("release$version")
+        val barren = byteArrayOf(1, version.toByte())
+        val crop = byteArrayOf(2, version.toByte())
+        File(directory, "barren.tflite").writeBytes(barren)
+        File(directory, "crop.tflite").writeBytes(crop)
+        File(directory, DirectoryModelSource.MANIFEST).writeText(
+            """
+            version=$version
+            barren=barren.tflite
+            barren.sha256=${sha256(barren)}
+            crop=crop.tflite
+            crop.sha256=${sha256(crop)}
+            """.trimIndent()
+        )
+        assertEquals(version, ModelStore(context).install(DirectoryModelSource(directory))?.version)
+    }
+
+    private fun sha256(bytes: ByteArray): String =
+        MessageDigest.getInstance("SHA-256").digest(bytes).joinToString("") { "%02x".format(it) }
+
+    companion object {
+        // One thread each, so resolved() leaves them alone on any host
+        private val FIRST = EngineTuning(InterpreterSettings(1, Accelerator.XNNPACK), InterpreterSettings(1, Accelerator.XNNPACK))
+        private val SECOND = EngineTuning(InterpreterSettings(1, Accelerator.CPU), InterpreterSettings(1, Accelerator.CPU))
+    }
+}
+
+//VotingEngineTest.kt
+package com.example.cropanalysissdk
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Random
+
+/**
+ * [VotingEngine.vote] over a [VoteMatrix] must match the list form over the same cells'
+ * detections: crops, order, averages, locations, masks and observer calls.
+ */
+class VotingEngineTest {
+
+    @Test
+    fun matrixVoteMatchesListVote() {
+        val random = Random(42)
+        var accepted = 0
+        repeat(500) {
+            val matrix = randomMatrix(random)
+            val full = (InferenceBackend.CROP_LABELS + "Unknown")[random.nextInt(InferenceBackend.CROP_LABELS.size + 1)]
+
+            val listVotes = mutableListOf<String>()
+            val matrixVotes = mutableListOf<String>()
+            val fromList = VotingEngine.vote(detections(matrix), full) { crop, votes, avg, ok -> listVotes += "$crop $votes $avg $ok" }
+            val fromMatrix = VotingEngine.vote(matrix, full) { crop, votes, avg, ok -> matrixVotes += "$crop $votes $avg $ok" }
+
+            assertEquals(fromList, fromMatrix)
+            assertEquals(listVotes, matrixVotes)
+            accepted += fromMatrix.size
+        }
+        // The random grids must actually exercise acceptance, not just empty results
+        assertTrue(accepted > 100)
+    }
+
+    @Test
+    fun offsetCellsVoteButNameNoLocation() {
+        val matrix = VoteMatrix(CELLS)
+        for (cell in GridLayout.ALIGNED_CELLS until CELLS) matrix.setTop(cell, 1, 0.9f)
+
+        val result = VotingEngine.vote(matrix, "Unknown").single()
+        assertEquals(VotingEngine.vote(detections(matrix), "Unknown").single(), result)
+        assertEquals("Multiple Regions", result.location)
+        assertEquals(0x1E00, result.regionMask)
+    }
+
+    private fun randomMatrix(random: Random): VoteMatrix {
+        val matrix = VoteMatrix(CELLS)
+        for (cell in 0 until CELLS) {
+            when (random.nextInt(6)) {
+                // Barren or prefiltered: never scored
+                0 -> Unit
+                1 -> matrix.setTop(cell, random.nextInt(matrix.classes + 1) - 1, 0.5f + random.nextFloat() * 0.5f)
+                2 -> {
+                    for (cls in 0 until matrix.classes) matrix.set(cell, cls, if (cls == 0) Float.NaN else 0f)
+                    matrix.complete(cell)
+                }
+                else -> {
+                    // A dominant class, so most cells clear CONF_THRESH
+                    val dominant = random.nextInt(matrix.classes)
+                    for (cls in 0 until matrix.classes) {
+                        val p = if (cls == dominant) 0.55f + random.nextFloat() * 0.45f else random.nextFloat() * 0.3f
+                        matrix.set(cell, cls, p)
+                    }
+                    matrix.complete(cell)
+                }
+            }
+        }
+        return matrix
+    }
+
+    // What AnalysisPipeline hands the list form: one detection per confident cell, in grid order
+    private fun detections(matrix: VoteMatrix): List<CropDetection> {
+        val detections = mutableListOf<CropDetection>()
+        for (cell in 0 until matrix.cells) {
+            if (matrix.topClass(cell) < 0 || matrix.confidence(cell) < VotingRules.CONF_THRESH) continue
+            val aligned = cell < GridLayout.ALIGNED_CELLS
+            detections += CropDetection(
+                cropName = matrix.cropName(cell),
+                confidence = matrix.confidence(cell),
+                votes = 1,
+                location = if (aligned) GridLayout.locationName(cell) else "Offset-Region",
+                source = if (aligned) "Grid-Aligned" else "Grid-Offset",
+                regionMask = matrix.regionMask(cell)
+            )
+        }
+        return detections
+    }
+
+    companion object {
+        // The aligned 3x3 grid plus the 2x2 offset cells that fit inside it
+        private val CELLS = GridLayout.analysisGrid(900, 900).size
+    }
+}
+
+//BatchCheckpointTest.kt
+package com.example.cropanalysissdk
+
+import android.net.Uri
+import org.junit.Assert.assertEquals
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+import java.io.FileOutputStream
+
+/**
+ * [BatchCheckpoint] must survive a process killed mid-append and resume by URI and stamp.
+ */
+@RunWith(RobolectricTestRunner::class)
+class BatchCheckpointTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    private val a = Uri.parse("content://photos/a.jpg")
+    private val b = Uri.parse("content://photos/b.jpg")
+    private val c = Uri.parse("content://photos/c.jpg")
+
+    @Test
+    fun tornTailIsCutOff() {
+        val file = File(temp.root, "batch.ckpt")
+        write(file, listOf(a, b, c), 0 to a, 1 to b)
+        val intact = file.length()
+
+        // Killed mid-record: a length prefix and part of the payload
+        FileOutputStream(file, true).use { it.write(byteArrayOf(0, 0, 1, 0, 7, 7, 7)) }
+
+        val checkpoint = BatchCheckpoint(file)
+        val done = checkpoint.open(listOf(a, b, c)) { STAMP }
+        assertEquals(listOf(item(0, a), item(1, b)), done)
+        assertEquals(intact, file.length())
+
+        // Appends after the cut are readable again
+        checkpoint.append(item(2, c), STAMP)
+        checkpoint.close()
+        assertEquals(listOf(item(0, a), item(1, b), item(2, c)), BatchCheckpoint(file).open(listOf(a, b, c)) { STAMP })
+    }
+
+    @Test
+    fun garbageLengthIsCutOff() {
+        val file = File(temp.root, "batch.ckpt")
+        write(file, listOf(a, b), 0 to a)
+        val intact = file.length()
+        FileOutputStream(file, true).use { it.write(byteArrayOf(-1, -1, -1, -1)) }
+
+        assertEquals(listOf(item(0, a)), BatchCheckpoint(file).open(listOf(a, b)) { STAMP })
+        assertEquals(intact, file.length())
+    }
+
+    @Test
+    fun recordsFollowTheirUri() {
+        val file = File(temp.root, "batch.ckpt")
+        write(file, listOf(a, b), 0 to a, 1 to b)
+
+        // New photo first, old ones reordered
+        val done = BatchCheckpoint(file).open(listOf(c, b, a)) { STAMP }
+        assertEquals(listOf(item(1, b), item(2, a)), done)
+    }
+
+    @Test
+    fun changedFileIsAnalysedAgain() {
+        val file = File(temp.root, "batch.ckpt")
+        write(file, listOf(a, b), 0 to a, 1 to b)
+
+        val done = BatchCheckpoint(file).open(listOf(a, b)) { if (it == a) "2048:1" else STAMP }
+        assertEquals(listOf(item(1, b)), done)
+    }
+
+    private fun write(file: File, uris: List<Uri>, vararg items: Pair<Int, Uri>) {
+        val checkpoint = BatchCheckpoint(file)
+        assertEquals(emptyList<BatchItemResult>(), checkpoint.open(uris) { STAMP })
+        for ((index, uri) in items) checkpoint.append(item(index, uri), STAMP)
+        checkpoint.close()
+    }
+
+    private fun item(index: Int, uri: Uri): BatchItemResult =
+        if (uri == b) BatchItemResult(index, uri, null, "decode failed") else BatchItemResult(index, uri, result(uri), null)
+
+    private fun result(uri: Uri): AnalysisResult {
+        val rice = CropDetection("Rice", 0.8f, 3, "Center", "Grid-Consensus", 0b10000)
+        return AnalysisResult(
+            isBarren = false,
+            barrenConfidence = 0.1f,
+            fullImageAnalysis = CropDetection("Rice", 0.7f, 1, "Entire Field", "Full-Image"),
+            gridDetections = listOf(rice),
+            executionTimeMs = 120,
+            imageHash = uri.hashCode().toLong()
+        )
+    }
+
+    companion object {
+        private const val STAMP = "1024:1"
+    }
+}
+
+//ResultJournalTest.kt
+package com.example.cropanalysissdk
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+
+/**
+ * A [ResultJournal] opened on an existing file must rebuild the same indexes [append] kept.
+ */
+@RunWith(RobolectricTestRunner::class)
+class ResultJournalTest {
+
+    @get:Rule
+    val temp = TemporaryFolder()
+
+    @Test
+    fun reopenRebuildsIndexes() {
+        val file = File(temp.root, "history.bin")
+        val journal = ResultJournal.open(file)
+        // Enough records to need several time-index strides
+        for (i in 0 until RECORDS) journal.append(result(i), 1_000L * i)
+        journal.flush()
+
+        // open() shares one instance per file; a copy is read from scratch
+        val copy = file.copyTo(File(temp.root, "history-copy.bin"))
+        val reopened = ResultJournal.open(copy)
+
+        assertEquals(RECORDS, reopened.size)
+        for (record in listOf(0, 1, 255, 256, RECORDS - 1)) assertEquals(journal.read(record), reopened.read(record))
+        for (crop in ModelEngine.CROP_LABELS) assertArrayEquals(journal.recordsWithCrop(crop), reopened.recordsWithCrop(crop))
+        assertEquals(journal.recordsBetween(250_000, 520_000), reopened.recordsBetween(250_000, 520_000))
+        assertEquals(journal.summarize(100_000, 400_000), reopened.summarize(100_000, 400_000))
+
+        // The rebuilt indexes keep growing with new records
+        assertEquals(RECORDS, reopened.append(result(1), 1_000L * RECORDS))
+        assertEquals(RECORDS, reopened.recordsWithCrop("Rice").last())
+    }
+
+    @Test
+    fun unreadableFileStartsEmpty() {
+        val file = File(temp.root, "garbage.bin")
+        file.writeBytes(ByteArray(64) { 0x5A })
+
+        val journal = ResultJournal.open(file)
+        assertEquals(0, journal.size)
+        assertEquals(0, journal.append(result(0), 5L))
+        assertEquals(5L, journal.read(0).timestampMs)
+    }
+
+    // Every third result is fallow; the rest alternate Rice with Maize or Rice + Soybean
+    private fun result(i: Int): AnalysisResult {
+        val crops = when {
+            i % 3 == 0 -> emptyList()
+            i % 2 == 0 -> listOf(CropDetection("Maize", 0.7f, 3, "Center", "Grid-Consensus", 0b10000))
+            else -> listOf(
+                CropDetection("Rice", 0.9f, 4, "Top-Left, Center", "Grid-Consensus", 0b10001),
+                CropDetection("Soybean", 0.66f + i % 10 / 100f, 3, "Bottom-Right", "Grid-Consensus", 1 shl 8)
+            )
+        }
+        return AnalysisResult(
+            isBarren = crops.isEmpty(),
+            barrenConfidence = if (crops.isEmpty()) 0.9f else 0.2f,
+            fullImageAnalysis = CropDetection(crops.firstOrNull()?.cropName ?: "Unknown", 0.6f, 1, "Entire Field", "Full-Image"),
+            gridDetections = crops,
+            executionTimeMs = 100,
+            imageHash = i * 31L
+        )
+    }
+
+    companion object {
+        private const val RECORDS = 600
+    }
+}
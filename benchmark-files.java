@@ -0,0 +1,395 @@
+//settings.gradle.kts
+// Root settings: the app, the SDK library and the two plain-JVM modules built from its sources.
+pluginManagement {
+    repositories {
+        google()
+        mavenCentral()
+        gradlePluginPortal()
+    }
+}
+
+dependencyResolutionManagement {
+    repositories {
+        google()
+        mavenCentral()
+    }
+}
+
+rootProject.name = "CropAnalysis"
+include(":app", ":cropanalysissdk", ":runner", ":benchmark")
+
+//build.gradle.kts
+// Plain-JVM JMH benchmarks for the Kotlin side of the analysis hot path, with TFLite stubbed out.
+// Run with: ./gradlew :benchmark:jmh   (results in build/results/jmh/results.json)
+// The benchmarks and the stub backend live in src/jmh/kotlin: the JMH plugin only generates
+// harness code for the jmh source set.
+plugins {
+    id("org.jetbrains.kotlin.jvm")
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+// The same pipeline files as the headless runner, compiled into the jmh source set directly from
+// the library module instead of depending on the AAR. Platform.kt is the one Android shim; the
+// runner's JVM version is used instead.
+val sdkSources = "../cropanalysissdk/src/main/java"
+val runnerSources = "../runner/src/main/kotlin"
+val sdkPipelineFiles = listOf(
+    "AnalysisEvent.kt",
+    "AnalysisOptions.kt",
+    "AnalysisPipeline.kt",
+    "AnalysisResult.kt",
+    "CascadePolicy.kt",
+    "ContentHash.kt",
+    "CostModel.kt",
+    "CropTrace.kt",
+    "EngineConfig.kt",
+    "GridLayout.kt",
+    "ImagePixels.kt",
+    "InferenceBackend.kt",
+    "ModelSession.kt",
+    "PipelineMetrics.kt",
+    "RegionStats.kt",
+    "SessionPool.kt",
+    "TensorPreprocessor.kt",
+    "TfliteBackend.kt",
+    "VoteMatrix.kt",
+    "VoteTally.kt",
+    "VotingEngine.kt",
+    "VotingRules.kt"
+)
+
+kotlin {
+    jvmToolchain(17)
+    sourceSets["jmh"].kotlin.apply {
+        srcDir(sdkSources)
+        srcDir(runnerSources)
+        include("com/example/cropanalysissdk/benchmark/**")
+        include("com/example/cropanalysissdk/Platform.kt")
+        sdkPipelineFiles.forEach { include("com/example/cropanalysissdk/$it") }
+        exclude { it.file.startsWith(file(sdkSources)) && it.name == "Platform.kt" }
+    }
+}
+
+dependencies {
+    jmh("org.openjdk.jmh:jmh-core:1.37")
+    jmhAnnotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+    // AnalysisPipeline links against TfliteBackend; the stub backend never loads a model, so
+    // the runner's desktop jar is enough and no JNI library is needed
+    jmh(files("../runner/libs/tensorflow-lite.jar"))
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    // Fixed settings so CI numbers are comparable run to run
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+    timeUnit.set("us")
+    benchmarkMode.set(listOf("avgt"))
+    resultFormat.set("JSON")
+}
+
+//StubInferenceBackend.kt
+package com.example.cropanalysissdk.benchmark
+
+import com.example.cropanalysissdk.GridRegion
+import com.example.cropanalysissdk.ImagePixels
+import com.example.cropanalysissdk.InferenceBackend
+import com.example.cropanalysissdk.TensorPreprocessor
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * Deterministic stand-in for [com.example.cropanalysissdk.ModelEngine].
+ *
+ * Every region goes through the real [TensorPreprocessor] into a model-sized input buffer, as
+ * the TFLite path does. The "scores" are then cheap statistics of that tensor: green-dominant
+ * share for the barren model, mean colour for the crop model. The same pixels always give the
+ * same answers, so runs that use it are repeatable.
+ */
+class StubInferenceBackend : InferenceBackend {
+
+    override val modelVersion = "stub@1"
+
+    private val barrenInput = tensor(BARREN_INPUT_SIZE)
+    private val cropInput = tensor(CROP_INPUT_SIZE)
+
+    override fun isBarren(image: ImagePixels): Pair<Boolean, Float> = barren(image, image.fullRegion)
+
+    override fun isBarrenBatch(image: ImagePixels, regions: List<GridRegion>): List<Pair<Boolean, Float>> =
+        regions.map { barren(image, it) }
+
+    override fun classifyCrop(image: ImagePixels): Pair<String, Float> = crop(image, image.fullRegion)
+
+    override fun classifyCropBatch(image: ImagePixels, regions: List<GridRegion>): List<Pair<String, Float>> =
+        regions.map { crop(image, it) }
+
+    private fun barren(image: ImagePixels, region: GridRegion): Pair<Boolean, Float> {
+        barrenInput.clear()
+        TensorPreprocessor.writeRegion(image, region, BARREN_INPUT_SIZE, 1f / 255f, barrenInput)
+
+        var green = 0
+        val pixels = BARREN_INPUT_SIZE * BARREN_INPUT_SIZE
+        for (i in 0 until pixels) {
+            val r = barrenInput.getFloat(i * 12)
+            val g = barrenInput.getFloat(i * 12 + 4)
+            val b = barrenInput.getFloat(i * 12 + 8)
+            if (g > r && g > b) green++
+        }
+        // Same reading as the real model: prob > 0.5 means crop
+        val prob = green.toFloat() / pixels
+        return Pair(prob <= 0.5f, if (prob > 0.5f) prob else 1f - prob)
+    }
+
+    private fun crop(image: ImagePixels, region: GridRegion): Pair<String, Float> {
+        cropInput.clear()
+        TensorPreprocessor.writeRegion(image, region, CROP_INPUT_SIZE, 1f, cropInput)
+
+        var r = 0.0
+        var g = 0.0
+        var b = 0.0
+        val pixels = CROP_INPUT_SIZE * CROP_INPUT_SIZE
+        for (i in 0 until pixels) {
+            r += cropInput.getFloat(i * 12)
+            g += cropInput.getFloat(i * 12 + 4)
+            b += cropInput.getFloat(i * 12 + 8)
+        }
+        val labels = InferenceBackend.CROP_LABELS
+        val mean = ((r + g + b) / (3 * pixels)).toInt()
+        val label = labels[(mean / 16) % labels.size]
+        val confidence = 0.5f + (g / (r + g + b + 1.0)).toFloat() / 2f
+        return Pair(label, confidence)
+    }
+
+    private fun tensor(size: Int): ByteBuffer =
+        ByteBuffer.allocateDirect(size * size * 3 * 4).order(ByteOrder.nativeOrder())
+
+    companion object {
+        private const val BARREN_INPUT_SIZE = 224
+        private const val CROP_INPUT_SIZE = 260
+    }
+}
+
+//SyntheticImages.kt
+package com.example.cropanalysissdk.benchmark
+
+import com.example.cropanalysissdk.ImagePixels
+import kotlin.random.Random
+
+/**
+ * Reproducible field-like test images: a sky band on top, then strips of crop-green and soil
+ * with per-pixel noise from a fixed seed.
+ */
+object SyntheticImages {
+
+    fun field(width: Int, height: Int, seed: Int = 42): ImagePixels {
+        val random = Random(seed)
+        val argb = IntArray(width * height)
+        val skyRows = height / 5
+
+        for (y in 0 until height) {
+            for (x in 0 until width) {
+                val noise = random.nextInt(-12, 13)
+                argb[y * width + x] = when {
+                    y < skyRows -> rgb(120 + noise, 170 + noise, 235)
+                    (x / (width / 7 + 1)) % 3 == 2 -> rgb(130 + noise, 100 + noise, 70 + noise)
+                    else -> rgb(60 + noise, 140 + noise, 50 + noise)
+                }
+            }
+        }
+        return ImagePixels(width, height, argb)
+    }
+
+    private fun rgb(r: Int, g: Int, b: Int): Int =
+        (0xFF shl 24) or (r.coerceIn(0, 255) shl 16) or (g.coerceIn(0, 255) shl 8) or b.coerceIn(0, 255)
+}
+
+//GridBenchmark.kt
+package com.example.cropanalysissdk.benchmark
+
+import com.example.cropanalysissdk.GridLayout
+import com.example.cropanalysissdk.GridRegion
+import com.example.cropanalysissdk.ImagePixels
+import com.example.cropanalysissdk.RegionStats
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+/**
+ * Grid splitting and the sky / bare-soil prefilter, at decode resolution and at full 12 MP.
+ */
+@State(Scope.Benchmark)
+open class GridBenchmark {
+
+    @Param("780x1040", "3000x4000")
+    lateinit var size: String
+
+    private lateinit var image: ImagePixels
+    private lateinit var grid: List<GridRegion>
+
+    @Setup
+    fun setUp() {
+        val (w, h) = size.split('x').map { it.toInt() }
+        image = SyntheticImages.field(w, h)
+        grid = GridLayout.analysisGrid(w, h)
+    }
+
+    @Benchmark
+    fun splitGrid(): List<GridRegion> = GridLayout.analysisGrid(image.width, image.height)
+
+    @Benchmark
+    fun skyCheck(): Int {
+        val stats = RegionStats.compute(image)
+        var flagged = 0
+        for (cell in grid) {
+            if (stats.isMostlySky(cell) || stats.isBareSoil(cell)) flagged++
+        }
+        return flagged
+    }
+}
+
+//PreprocessBenchmark.kt
+package com.example.cropanalysissdk.benchmark
+
+import com.example.cropanalysissdk.GridLayout
+import com.example.cropanalysissdk.GridRegion
+import com.example.cropanalysissdk.ImagePixels
+import com.example.cropanalysissdk.TensorPreprocessor
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+
+/**
+ * Resizing every grid cell into the crop model's 260x260 input, float and uint8.
+ */
+@State(Scope.Benchmark)
+open class PreprocessBenchmark {
+
+    private lateinit var image: ImagePixels
+    private lateinit var grid: List<GridRegion>
+    private lateinit var floatInput: ByteBuffer
+    private lateinit var quantInput: ByteBuffer
+
+    @Setup
+    fun setUp() {
+        image = SyntheticImages.field(780, 1040)
+        grid = GridLayout.analysisGrid(image.width, image.height)
+        floatInput = ByteBuffer.allocateDirect(grid.size * CELL * CELL * 3 * 4).order(ByteOrder.nativeOrder())
+        quantInput = ByteBuffer.allocateDirect(grid.size * CELL * CELL * 3).order(ByteOrder.nativeOrder())
+    }
+
+    @Benchmark
+    fun gridToFloatTensor(): ByteBuffer {
+        floatInput.clear()
+        for (cell in grid) TensorPreprocessor.writeRegion(image, cell, CELL, 1f, floatInput)
+        return floatInput
+    }
+
+    @Benchmark
+    fun gridToQuantizedTensor(): ByteBuffer {
+        quantInput.clear()
+        for (cell in grid) {
+            TensorPreprocessor.writeRegionQuantized(image, cell, CELL, 1f, 1f, 0, false, quantInput)
+        }
+        return quantInput
+    }
+
+    companion object {
+        private const val CELL = 260
+    }
+}
+
+//VotingBenchmark.kt
+package com.example.cropanalysissdk.benchmark
+
+import com.example.cropanalysissdk.CropDetection
+import com.example.cropanalysissdk.GridLayout
+import com.example.cropanalysissdk.InferenceBackend
+import com.example.cropanalysissdk.VoteMatrix
+import com.example.cropanalysissdk.VotingEngine
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import kotlin.random.Random
+
+/**
+ * Steps 4-6 over a full grid's worth of cell detections, and over the same cells as a
+ * [VoteMatrix].
+ */
+@State(Scope.Benchmark)
+open class VotingBenchmark {
+
+    private lateinit var detections: List<CropDetection>
+    private lateinit var matrix: VoteMatrix
+
+    @Setup
+    fun setUp() {
+        val random = Random(7)
+        val labels = InferenceBackend.CROP_LABELS
+        detections = List(13) { index ->
+            CropDetection(
+                cropName = labels[random.nextInt(2)],
+                confidence = 0.65f + random.nextFloat() * 0.35f,
+                votes = 1,
+                location = if (index < GridLayout.ALIGNED_CELLS) GridLayout.locationName(index) else "Offset-Region",
+                source = if (index < GridLayout.ALIGNED_CELLS) "Grid-Aligned" else "Grid-Offset",
+                regionMask = 1 shl index
+            )
+        }
+        matrix = VoteMatrix(detections.size)
+        detections.forEachIndexed { cell, detection ->
+            matrix.setTop(cell, labels.indexOf(detection.cropName), detection.confidence)
+        }
+    }
+
+    @Benchmark
+    fun voteAndResolve(): List<CropDetection> {
+        val results = VotingEngine.vote(detections, "Maize")
+        VotingEngine.resolve(results, "Maize", 0.8f, false)
+        return results
+    }
+
+    @Benchmark
+    fun voteMatrixAndResolve(): List<CropDetection> {
+        val results = VotingEngine.vote(matrix, "Maize")
+        VotingEngine.resolve(results, "Maize", 0.8f, false)
+        return results
+    }
+}
+
+//GridPassBenchmark.kt
+package com.example.cropanalysissdk.benchmark
+
+import com.example.cropanalysissdk.AnalysisPipeline
+import com.example.cropanalysissdk.AnalysisResult
+import com.example.cropanalysissdk.ImagePixels
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+
+/**
+ * One [AnalysisPipeline] run end to end (fallow check, full-image pass, prefilter, batched grid
+ * scoring, voting) with [StubInferenceBackend] in place of TFLite. Model time is excluded by
+ * design; a regression here is in our code.
+ */
+@State(Scope.Benchmark)
+open class GridPassBenchmark {
+
+    private lateinit var image: ImagePixels
+    private val pipeline = AnalysisPipeline(StubInferenceBackend())
+
+    @Setup
+    fun setUp() {
+        image = SyntheticImages.field(780, 1040)
+    }
+
+    @Benchmark
+    fun analyze(): AnalysisResult = pipeline.run(image)
+}
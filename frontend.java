@@ -3,24 +3,33 @@
 package com.example.cropdemo;
 
 import android.graphics.Bitmap;
-import android.graphics.ImageDecoder;
 import android.net.Uri;
-import android.os.Build;
 import android.os.Bundle;
-import android.provider.MediaStore;
 import android.widget.ImageView;
 import android.widget.TextView;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.ContextCompat;
+import com.example.cropanalysissdk.AnalysisEvent;
+import com.example.cropanalysissdk.CellStatus;
 import com.example.cropanalysissdk.CropSDK;
 import com.example.cropanalysissdk.AnalysisResult;
 import com.example.cropanalysissdk.CropDetection;
+import com.example.cropanalysissdk.ModelEngine;
+import com.example.cropanalysissdk.SampledImageDecoder;
+import com.example.cropanalysissdk.SharedModelEngine;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 public class CropClassificationActivity extends AppCompatActivity {
 
     private ImageView imageView;
     private TextView resultTextView;
     private CropSDK cropSdk;
+    private boolean engineAcquired;
+    private Future<AnalysisResult> pendingAnalysis;
+    private final StringBuilder progress = new StringBuilder();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -30,22 +39,79 @@ public class CropClassificationActivity extends AppCompatActivity {
         imageView = findViewById(R.id.cropImageView);
         resultTextView = findViewById(R.id.cropTextView);
 
-        try {
-            cropSdk = new CropSDK(this);
-        } catch (Exception e) {
-            resultTextView.setText("Error: " + e.getMessage());
+        String imageUriString = getIntent().getStringExtra("imageUri");
+        if (imageUriString == null) {
             return;
         }
+        Uri imageUri = Uri.parse(imageUriString);
+        resultTextView.setText("Analysing...\n");
+        Executor mainExecutor = ContextCompat.getMainExecutor(this);
+
+        // Decoding blocks on file I/O, so it runs in the background while the engine loads.
+        // The engine is shared app-wide and usually already warm (see MyApplication)
+        CompletableFuture<Bitmap> decoded = CompletableFuture.supplyAsync(() -> loadBitmapFromUri(imageUri));
+        engineAcquired = true;
+        CompletableFuture<ModelEngine> engineReady = SharedModelEngine.acquire(this);
+
+        decoded.thenAcceptAsync(bitmap -> {
+            if (isDestroyed()) {
+                return;
+            }
+            if (bitmap == null) {
+                resultTextView.setText("Error: could not open the image");
+                return;
+            }
+            imageView.setImageBitmap(bitmap);
+            engineReady.whenCompleteAsync((engine, error) -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                if (error != null) {
+                    resultTextView.setText("Error: " + error.getMessage());
+                    return;
+                }
+                cropSdk = new CropSDK(this, engine);
+                // Runs off the main thread; events arrive on the main thread as each stage finishes
+                pendingAnalysis = cropSdk.analyzeAsync(bitmap, mainExecutor, this::onAnalysisEvent);
+            }, mainExecutor);
+        }, mainExecutor);
+    }
 
-        String imageUriString = getIntent().getStringExtra("imageUri");
-        if (imageUriString != null) {
-            Bitmap bitmap = loadBitmapFromUri(Uri.parse(imageUriString));
-            if (bitmap != null) {
-                imageView.setImageBitmap(bitmap);
-                AnalysisResult result = cropSdk.analyze(bitmap);
-                resultTextView.setText(formatProfessionalReport(result));
+    @Override
+    protected void onDestroy() {
+        if (pendingAnalysis != null) {
+            pendingAnalysis.cancel(true);
+        }
+        if (cropSdk != null) {
+            cropSdk.close();
+        }
+        if (engineAcquired) {
+            SharedModelEngine.release();
+        }
+        super.onDestroy();
+    }
+
+    private void onAnalysisEvent(AnalysisEvent event) {
+        if (event instanceof AnalysisEvent.FallowVerdict) {
+            AnalysisEvent.FallowVerdict verdict = (AnalysisEvent.FallowVerdict) event;
+            progress.append(String.format(Locale.US, "Terrain:      %s (%.1f%%)\n",
+                    verdict.isBarren() ? "Fallow" : "Cultivated", verdict.getConfidence() * 100));
+        } else if (event instanceof AnalysisEvent.FullImageDetection) {
+            CropDetection detection = ((AnalysisEvent.FullImageDetection) event).getDetection();
+            progress.append(String.format(Locale.US, "Full image:   %s (%.1f%%)\n",
+                    detection.getCropName(), detection.getConfidence() * 100));
+        } else if (event instanceof AnalysisEvent.GridCell) {
+            AnalysisEvent.GridCell cell = (AnalysisEvent.GridCell) event;
+            if (cell.getStatus() == CellStatus.DETECTED) {
+                progress.append(String.format(Locale.US, "  Region %d:   %s (%.1f%%)\n",
+                        cell.getIndex(), cell.getDetection().getCropName(), cell.getConfidence() * 100));
             }
+        } else if (event instanceof AnalysisEvent.Completed) {
+            pendingAnalysis = null;
+            resultTextView.setText(formatProfessionalReport(((AnalysisEvent.Completed) event).getResult()));
+            return;
         }
+        resultTextView.setText("Analysing...\n" + progress);
     }
 
     private String formatProfessionalReport(AnalysisResult result) {
@@ -111,7 +177,8 @@ public class CropClassificationActivity extends AppCompatActivity {
         sb.append(String.format(Locale.US, "  %s (%.1f%% confidence)\n",
                 fullImage.getCropName(), fullConf * 100));
 
-        sb.append(String.format(Locale.US, "⏱ Process Time: %d ms\n", result.getExecutionTimeMs()));
+        sb.append(String.format(Locale.US, "⏱ Process Time: %d ms%s\n", result.getExecutionTimeMs(),
+                result.isCached() ? " (cached)" : ""));
 
 
         return sb.toString();
@@ -138,21 +205,9 @@ public class CropClassificationActivity extends AppCompatActivity {
 
     private Bitmap loadBitmapFromUri(Uri uri) {
         try {
-            Bitmap bitmap;
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
-                bitmap = ImageDecoder.decodeBitmap(
-                        ImageDecoder.createSource(getContentResolver(), uri)
-                );
-            } else {
-                bitmap = MediaStore.Images.Media.getBitmap(getContentResolver(), uri);
-            }
-
-            // Convert hardware bitmap to software bitmap if needed
-            if (bitmap.getConfig() == Bitmap.Config.HARDWARE) {
-                bitmap = bitmap.copy(Bitmap.Config.ARGB_8888, true);
-            }
-
-            return bitmap;
+            // Decodes straight to ~780px on the short side as a software bitmap; the full
+            // 12 MP photo is never allocated
+            return SampledImageDecoder.decode(this, uri);
         } catch (Exception e) {
             e.printStackTrace();
             return null;
@@ -179,8 +234,6 @@ import androidx.core.content.FileProvider;
 import java.io.File;
 import java.io.IOException;
 
-//import com.example.cropdemo.ml.ModelManager;
-
 public class MainActivity extends AppCompatActivity {
 
     private ActivityResultLauncher<Uri> takePictureLauncher;
@@ -204,21 +257,8 @@ public class MainActivity extends AppCompatActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
-//        Only for Testing, to remove at production
-//        ModelManager.resetToAssetModel(this);
-//        Till here
-//        try {
-//            ModelManager.installAssetModelIfNeeded(this);
-//        } catch (Exception e) {
-//            e.printStackTrace();
-//            Toast.makeText(
-//                    this,
-//                    "Failed to initialize ML model",
-//                    Toast.LENGTH_LONG
-//            ).show();
-//            finish();   // fail fast – app cannot function without model
-//            return;
-//        }
+        // Models load with the shared engine (see MyApplication): installed releases from
+        // ModelStore, falling back to the bundled assets, so there is nothing to install here.
 
         // Find both buttons
         Button openCameraBtn = findViewById(R.id.open_camera_btn);
@@ -363,13 +403,22 @@ import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 
-//import com.example.cropdemo.ml.ModelUpdateScheduler;
+import com.example.cropanalysissdk.DirectoryModelSource;
+import com.example.cropanalysissdk.EngineConfig;
+import com.example.cropanalysissdk.SharedModelEngine;
+
+import java.io.File;
 
 public class MyApplication extends Application {
 
     @Override
     public void onCreate() {
         super.onCreate();
+        // Map and warm up both models in the background so the first photo doesn't wait for them.
+        // The first launch also benchmarks interpreter settings for this phone (see EngineTuner).
+        SharedModelEngine.preload(this, EngineConfig.autoTuned());
+        // Model releases dropped into files/model_updates are verified, installed and swapped in live
+        SharedModelEngine.update(this, new DirectoryModelSource(new File(getFilesDir(), "model_updates")));
         startNetworkCallback();
     }
 
@@ -403,3 +452,110 @@ public class MyApplication extends Application {
         });
     }
 }
+
+//BatchAnalysisWorker.java
+package com.example.cropdemo;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.example.cropanalysissdk.BatchAnalyzer;
+import com.example.cropanalysissdk.BatchSummary;
+import com.example.cropanalysissdk.CropSDK;
+import com.example.cropanalysissdk.ModelEngine;
+import com.example.cropanalysissdk.SharedModelEngine;
+
+import java.io.File;
+
+/**
+ * Analyses a folder of field photos in the background. Progress is checkpointed by the SDK, so
+ * if the process is killed WorkManager simply reruns the worker and it picks up where it stopped.
+ */
+public class BatchAnalysisWorker extends Worker {
+
+    public static final String KEY_DIRECTORY = "directory";
+    public static final String KEY_COMPLETED = "completed";
+    public static final String KEY_TOTAL = "total";
+    public static final String KEY_FAILED = "failed";
+
+    private static final String WORK_NAME = "crop-batch-analysis";
+
+    private volatile BatchAnalyzer analyzer;
+
+    public BatchAnalysisWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    /**
+     * Queues analysis of every photo in {@code directory}. A batch that is already queued or
+     * running is left alone.
+     */
+    public static void enqueue(Context context, File directory) {
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(BatchAnalysisWorker.class)
+                .setInputData(new Data.Builder().putString(KEY_DIRECTORY, directory.getAbsolutePath()).build())
+                .build();
+        WorkManager.getInstance(context).enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.KEEP, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        String path = getInputData().getString(KEY_DIRECTORY);
+        if (path == null) {
+            return Result.failure();
+        }
+        File directory = new File(path);
+        File checkpoint = new File(getApplicationContext().getFilesDir(),
+                "batch_" + Integer.toHexString(path.hashCode()) + ".ckpt");
+
+        Context context = getApplicationContext();
+        CropSDK sdk = null;
+        try {
+            ModelEngine engine = SharedModelEngine.acquire(context).get();
+            sdk = new CropSDK(context, engine);
+            analyzer = new BatchAnalyzer(context, sdk, checkpoint);
+            if (isStopped()) {
+                return Result.retry();
+            }
+
+            BatchSummary summary = analyzer.runDirectory(directory, (item, completed, total) ->
+                    setProgressAsync(new Data.Builder()
+                            .putInt(KEY_COMPLETED, completed)
+                            .putInt(KEY_TOTAL, total)
+                            .build()));
+
+            if (!summary.isComplete()) {
+                return Result.retry();
+            }
+            analyzer.clearCheckpoint();
+            return Result.success(new Data.Builder()
+                    .putInt(KEY_TOTAL, summary.getTotal())
+                    .putInt(KEY_FAILED, summary.getFailed())
+                    .build());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Result.retry();
+        } finally {
+            if (sdk != null) {
+                sdk.close();
+            }
+            SharedModelEngine.release();
+        }
+    }
+
+    @Override
+    public void onStopped() {
+        super.onStopped();
+        BatchAnalyzer running = analyzer;
+        if (running != null) {
+            running.cancel();
+        }
+    }
+}
@@ -0,0 +1,539 @@
+//build.gradle.kts
+// Headless runner: analyzes a directory of survey photos on a server or workstation with the
+// same pipeline and models as the app, one image per core.
+// Run with: ./gradlew :runner:run --args="<images> <models> <out.jsonl> [workers]"
+//      or:  ./gradlew :runner:run --args="check <models> <reference image> <device result>"
+plugins {
+    id("org.jetbrains.kotlin.jvm")
+    application
+}
+
+// The pipeline files only use the JDK and the TFLite Java API, so they are compiled here
+// directly from the library module. Platform.kt is the one Android shim; this module has its own.
+val sdkSources = "../cropanalysissdk/src/main/java"
+val sdkPipelineFiles = listOf(
+    "AnalysisEvent.kt",
+    "AnalysisOptions.kt",
+    "AnalysisPipeline.kt",
+    "AnalysisResult.kt",
+    "AnalysisResultCodec.kt",
+    "CascadePolicy.kt",
+    "ContentHash.kt",
+    "CostModel.kt",
+    "CropTrace.kt",
+    "EngineConfig.kt",
+    "GridLayout.kt",
+    "ImagePixels.kt",
+    "InferenceBackend.kt",
+    "ModelSession.kt",
+    "PipelineMetrics.kt",
+    "RegionStats.kt",
+    "SessionPool.kt",
+    "TensorPreprocessor.kt",
+    "TfliteBackend.kt",
+    "VoteMatrix.kt",
+    "VoteTally.kt",
+    "VotingEngine.kt",
+    "VotingRules.kt"
+)
+
+kotlin {
+    jvmToolchain(17)
+    sourceSets["main"].kotlin.apply {
+        srcDir(sdkSources)
+        include("com/example/cropanalysissdk/runner/**")
+        include("com/example/cropanalysissdk/Platform.kt")
+        sdkPipelineFiles.forEach { include("com/example/cropanalysissdk/$it") }
+        exclude { it.file.startsWith(file(sdkSources)) && it.name == "Platform.kt" }
+    }
+}
+
+dependencies {
+    // TFLite only publishes Android AARs. The desktop Java API jar and its JNI library
+    // (libtensorflowlite_jni) are built from the TensorFlow sources for the server's platform
+    // and dropped into libs/.
+    implementation(files("libs/tensorflow-lite.jar"))
+}
+
+application {
+    mainClass.set("com.example.cropanalysissdk.runner.ArchiveRunner")
+    applicationDefaultJvmArgs = listOf("-Djava.library.path=libs")
+}
+
+//Platform.kt
+package com.example.cropanalysissdk
+
+/**
+ * JVM replacement for the SDK's Android [Platform]: no systrace, log lines go to stderr.
+ */
+@PublishedApi
+internal object Platform {
+
+    fun beginSection(name: String) {}
+
+    fun endSection() {}
+
+    fun log(tag: String, message: String) {
+        System.err.println("$tag: $message")
+    }
+}
+
+//ArchiveRunner.kt
+package com.example.cropanalysissdk.runner
+
+import com.example.cropanalysissdk.AnalysisOptions
+import com.example.cropanalysissdk.AnalysisPipeline
+import com.example.cropanalysissdk.AnalysisResult
+import com.example.cropanalysissdk.AnalysisResultCodec
+import com.example.cropanalysissdk.ContentHash
+import com.example.cropanalysissdk.CropDetection
+import com.example.cropanalysissdk.EngineConfig
+import com.example.cropanalysissdk.PipelineMetrics
+import com.example.cropanalysissdk.PipelineStage
+import com.example.cropanalysissdk.StageTimer
+import com.example.cropanalysissdk.TfliteBackend
+import com.example.cropanalysissdk.time
+import java.io.DataInputStream
+import java.io.File
+import java.io.IOException
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.util.Locale
+import java.util.concurrent.ExecutorCompletionService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.math.abs
+import kotlin.system.exitProcess
+
+/**
+ * Analyzes every photo under a directory and writes one JSON line per photo.
+ *
+ * Each photo is decoded the way `CropSDK.analyze(Uri)` does on a device (see [ArchiveImages])
+ * and goes through the same [AnalysisPipeline] with the same models, options and default
+ * [EngineConfig], so given the same pixels the output matches the app. Photos run in parallel,
+ * by default as many as the cores allow at the app's [EngineConfig.threadsPerInterpreter]; with
+ * more workers the interpreter threads are clamped, see [EngineConfig.resolved].
+ *
+ * Output fields are named after [AnalysisResult]; lines are written in completion order.
+ *
+ * `check` analyzes one reference photo and compares the result with one recorded on a device
+ * for the same file, written with [AnalysisResultCodec] (e.g. by an instrumented test around
+ * `CropSDK.analyze(File)`). Verdicts, crops, votes and cells must match; scores may differ by
+ * [CONFIDENCE_TOLERANCE], since the decoders are not bit-exact.
+ */
+object ArchiveRunner {
+
+    private val IMAGE_EXTENSIONS = setOf("jpg", "jpeg", "png")
+
+    /** Largest score difference `check` accepts between the device and this runner. */
+    const val CONFIDENCE_TOLERANCE = 0.02f
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        if (args.firstOrNull() == "check") exitProcess(check(args.drop(1)))
+        val workerArg = args.getOrNull(3)?.toIntOrNull()
+        if (args.size < 3 || (args.size > 3 && (workerArg == null || workerArg < 1))) {
+            System.err.println("usage: ArchiveRunner <image dir> <model dir> <output.jsonl> [workers]")
+            System.err.println("       ArchiveRunner check <model dir> <reference image> <device result>")
+            exitProcess(2)
+        }
+        val imageDir = Path.of(args[0])
+        val modelDir = File(args[1])
+        val output = File(args[2])
+        val workers = workerArg
+            ?: maxOf(1, Runtime.getRuntime().availableProcessors() / EngineConfig().threadsPerInterpreter)
+
+        val backend = loadBackend(modelDir, workers)
+        val pipeline = AnalysisPipeline(backend, AnalysisOptions())
+        val metrics = PipelineMetrics()
+
+        val photos = Files.walk(imageDir).use { paths ->
+            paths.filter { Files.isRegularFile(it) && it.toString().substringAfterLast('.').lowercase() in IMAGE_EXTENSIONS }
+                .sorted()
+                .toList()
+        }
+        System.err.println("${photos.size} photos, $workers workers, models ${backend.modelVersion}")
+
+        val failures = AtomicInteger()
+        val pool = Executors.newWorkStealingPool(workers)
+        val completion = ExecutorCompletionService<String>(pool)
+        val start = System.nanoTime()
+        try {
+            photos.forEach { photo ->
+                completion.submit { analyze(photo, imageDir.relativize(photo).toString(), pipeline, metrics, failures) }
+            }
+            output.bufferedWriter().use { out ->
+                repeat(photos.size) {
+                    out.write(completion.take().get())
+                    out.newLine()
+                }
+            }
+        } finally {
+            pool.shutdown()
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS)
+            backend.close()
+        }
+
+        report(metrics, photos.size, failures.get(), System.nanoTime() - start)
+    }
+
+    private fun analyze(
+        photo: Path,
+        name: String,
+        pipeline: AnalysisPipeline,
+        metrics: PipelineMetrics,
+        failures: AtomicInteger
+    ): String {
+        return try {
+            val startNanos = System.nanoTime()
+            val timer = StageTimer()
+            val image = timer.time(PipelineStage.DECODE) { ArchiveImages.decode(photo.toFile()) }
+            val result = pipeline.run(image, ContentHash.of(image), startNanos, null, timer) { false }
+            metrics.record(timer)
+            toJson(name, result)
+        } catch (e: IOException) {
+            failures.incrementAndGet()
+            """{"path":${quote(name)},"error":${quote(e.message ?: e.toString())}}"""
+        } catch (e: RuntimeException) {
+            failures.incrementAndGet()
+            """{"path":${quote(name)},"error":${quote(e.toString())}}"""
+        }
+    }
+
+    private fun check(args: List<String>): Int {
+        if (args.size != 3) {
+            System.err.println("usage: ArchiveRunner check <model dir> <reference image> <device result>")
+            return 2
+        }
+        val expected = DataInputStream(File(args[2]).inputStream().buffered()).use { AnalysisResultCodec.read(it) }
+        val backend = loadBackend(File(args[0]), 1)
+        val actual = try {
+            AnalysisPipeline(backend, AnalysisOptions()).run(ArchiveImages.decode(File(args[1])))
+        } finally {
+            backend.close()
+        }
+
+        // Identical pixels make every other difference a pipeline bug rather than the decoder
+        val pixels = if (expected.imageHash == actual.imageHash) "identical" else "different"
+        System.err.println("pixels $pixels (device %016x, runner %016x)".format(expected.imageHash, actual.imageHash))
+
+        val differences = compare(expected, actual)
+        differences.forEach { System.err.println("  $it") }
+        System.err.println(if (differences.isEmpty()) "result matches the device" else "${differences.size} differences")
+        return if (differences.isEmpty()) 0 else 1
+    }
+
+    private fun compare(expected: AnalysisResult, actual: AnalysisResult): List<String> {
+        val differences = mutableListOf<String>()
+        if (expected.isBarren != actual.isBarren ||
+            abs(expected.barrenConfidence - actual.barrenConfidence) > CONFIDENCE_TOLERANCE
+        ) {
+            differences += "barren: device ${expected.isBarren} ${expected.barrenConfidence}, runner ${actual.isBarren} ${actual.barrenConfidence}"
+        }
+        compare("full image", expected.fullImageAnalysis, actual.fullImageAnalysis, differences)
+        if (expected.gridDetections.size != actual.gridDetections.size) {
+            differences += "grid: device ${expected.gridDetections}, runner ${actual.gridDetections}"
+        } else {
+            expected.gridDetections.zip(actual.gridDetections).forEachIndexed { i, (device, runner) ->
+                compare("grid[$i]", device, runner, differences)
+            }
+        }
+        return differences
+    }
+
+    private fun compare(name: String, device: CropDetection, runner: CropDetection, differences: MutableList<String>) {
+        if (device.cropName != runner.cropName || device.votes != runner.votes || device.regionMask != runner.regionMask ||
+            abs(device.confidence - runner.confidence) > CONFIDENCE_TOLERANCE
+        ) {
+            differences += "$name: device $device, runner $runner"
+        }
+    }
+
+    // The app's default EngineConfig, with one session pair per worker so no call waits for one
+    private fun loadBackend(modelDir: File, workers: Int): TfliteBackend {
+        val defaults = EngineConfig()
+        return TfliteBackend(
+            map(File(modelDir, defaults.barrenModelAsset)),
+            map(File(modelDir, defaults.cropModelAsset)),
+            defaults.copy(interpreterPoolSize = workers)
+        )
+    }
+
+    private fun map(file: File): MappedByteBuffer {
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ).use { channel ->
+            channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+        }
+    }
+
+    private fun report(metrics: PipelineMetrics, photos: Int, failures: Int, elapsedNanos: Long) {
+        val snapshot = metrics.snapshot()
+        val seconds = elapsedNanos / 1e9
+        System.err.println(
+            String.format(
+                Locale.US, "%d analyzed, %d failed in %.1f s (%.1f photos/min)",
+                photos - failures, failures, seconds, if (seconds > 0) (photos - failures) * 60 / seconds else 0.0
+            )
+        )
+        for ((stage, histogram) in snapshot.stages) {
+            if (histogram.samples == 0L) continue
+            System.err.println(
+                String.format(
+                    Locale.US, "  %-16s p50 %8d us  p95 %8d us  mean %8d us",
+                    stage, histogram.percentileMicros(0.5), histogram.percentileMicros(0.95), histogram.meanMicros
+                )
+            )
+        }
+    }
+
+    // Floats use Float.toString so values compare exactly with the app's
+
+    private fun toJson(path: String, result: AnalysisResult): String = buildString {
+        append("{\"path\":").append(quote(path))
+        append(",\"isBarren\":").append(result.isBarren)
+        append(",\"barrenConfidence\":").append(result.barrenConfidence)
+        append(",\"fullImageAnalysis\":")
+        appendDetection(result.fullImageAnalysis)
+        append(",\"gridDetections\":[")
+        result.gridDetections.forEachIndexed { i, detection ->
+            if (i > 0) append(',')
+            appendDetection(detection)
+        }
+        append("],\"executionTimeMs\":").append(result.executionTimeMs)
+        append(",\"imageHash\":\"").append(String.format("%016x", result.imageHash)).append("\"}")
+    }
+
+    private fun StringBuilder.appendDetection(detection: CropDetection) {
+        append("{\"cropName\":").append(quote(detection.cropName))
+        append(",\"confidence\":").append(detection.confidence)
+        append(",\"votes\":").append(detection.votes)
+        append(",\"location\":").append(quote(detection.location))
+        append(",\"source\":").append(quote(detection.source))
+        append(",\"regionMask\":").append(detection.regionMask)
+        append('}')
+    }
+
+    private fun quote(text: String): String = buildString {
+        append('"')
+        for (c in text) {
+            when {
+                c == '"' || c == '\\' -> append('\\').append(c)
+                c < ' ' -> append(String.format("\\u%04x", c.code))
+                else -> append(c)
+            }
+        }
+        append('"')
+    }
+}
+
+//ArchiveImages.kt
+package com.example.cropanalysissdk.runner
+
+import com.example.cropanalysissdk.ImagePixels
+import java.io.DataInputStream
+import java.io.EOFException
+import java.io.File
+import java.io.IOException
+import javax.imageio.ImageIO
+import kotlin.math.min
+
+/**
+ * JVM counterpart of `SampledImageDecoder` + `ImageUtils.toPixels` on API 28+, step by step:
+ * ImageDecoder picks an integer sample size for the target, Skia decodes at that size in the
+ * stored orientation (libjpeg scaling by 2, 4 or 8 where the sample size allows, skipping
+ * pixels for the rest), then one bilinear draw applies the EXIF orientation and scales to the
+ * target size.
+ *
+ * libjpeg scales in the DCT domain, which block averaging only approximates, and ImageIO's
+ * decoder is not the platform's libjpeg-turbo, so pixels can still be off by a few levels;
+ * pipeline results only match exactly when the pixels do. [ArchiveRunner] `check` measures it.
+ */
+object ArchiveImages {
+
+    /** Same as `SampledImageDecoder.TARGET_SHORT_SIDE`. */
+    const val TARGET_SHORT_SIDE = 780
+
+    private const val TAG_ORIENTATION = 0x0112
+
+    // libjpeg's largest scale-down factor
+    private const val MAX_NATIVE_SAMPLE = 8
+
+    @Throws(IOException::class)
+    fun decode(file: File, targetShortSide: Int = TARGET_SHORT_SIDE): ImagePixels {
+        val decoded = ImageIO.read(file) ?: throw IOException("Unsupported image: $file")
+        val stored = ImagePixels(
+            decoded.width, decoded.height,
+            decoded.getRGB(0, 0, decoded.width, decoded.height, null, 0, decoded.width)
+        )
+        val orientation = readOrientation(file)
+
+        // Same rounding as SampledImageDecoder.decodeScaled; never upscales. The short side is
+        // the same before and after orientation, so the size only swaps.
+        val shortSide = min(stored.width, stored.height)
+        if (shortSide <= targetShortSide) return orient(stored, orientation)
+        val scale = targetShortSide.toFloat() / shortSide
+        val width = (stored.width * scale).toInt().coerceAtLeast(1)
+        val height = (stored.height * scale).toInt().coerceAtLeast(1)
+
+        val sampled = sample(stored, min(stored.width / width, stored.height / height), isJpeg(file))
+        val oriented = orient(sampled, orientation)
+        return if (orientation >= 5) resize(oriented, height, width) else resize(oriented, width, height)
+    }
+
+    /**
+     * Skia's sampled decode: for a JPEG, libjpeg scales by the largest of 8, 4, 2 that divides
+     * [sampleSize] (approximated by averaging blocks); any factor left keeps every n-th pixel,
+     * starting n / 2 in.
+     */
+    private fun sample(image: ImagePixels, sampleSize: Int, jpeg: Boolean): ImagePixels {
+        if (sampleSize <= 1) return image
+        var native = 1
+        while (jpeg && native < MAX_NATIVE_SAMPLE && sampleSize % (native * 2) == 0) native *= 2
+
+        val averaged = if (native > 1) average(image, native) else image
+        val rest = sampleSize / native
+        return if (rest > 1) skip(averaged, rest) else averaged
+    }
+
+    // libjpeg output size is ceil(size / factor); edge blocks average the pixels they have
+    private fun average(image: ImagePixels, factor: Int): ImagePixels {
+        val outW = (image.width + factor - 1) / factor
+        val outH = (image.height + factor - 1) / factor
+        val out = IntArray(outW * outH)
+        for (oy in 0 until outH) {
+            val y0 = oy * factor
+            val y1 = min(y0 + factor, image.height)
+            for (ox in 0 until outW) {
+                val x0 = ox * factor
+                val x1 = min(x0 + factor, image.width)
+                var r = 0
+                var g = 0
+                var b = 0
+                for (y in y0 until y1) {
+                    for (x in x0 until x1) {
+                        val p = image.argb[y * image.width + x]
+                        r += (p shr 16) and 0xFF
+                        g += (p shr 8) and 0xFF
+                        b += p and 0xFF
+                    }
+                }
+                val n = (y1 - y0) * (x1 - x0)
+                out[oy * outW + ox] = (0xFF shl 24) or ((r + n / 2) / n shl 16) or ((g + n / 2) / n shl 8) or ((b + n / 2) / n)
+            }
+        }
+        return ImagePixels(outW, outH, out)
+    }
+
+    // Skia's sampler: size / factor pixels (at least 1), the first factor / 2 in
+    private fun skip(image: ImagePixels, factor: Int): ImagePixels {
+        val outW = (image.width / factor).coerceAtLeast(1)
+        val outH = (image.height / factor).coerceAtLeast(1)
+        val start = factor / 2
+        val out = IntArray(outW * outH)
+        for (oy in 0 until outH) {
+            val sy = min(start + oy * factor, image.height - 1)
+            for (ox in 0 until outW) {
+                val sx = min(start + ox * factor, image.width - 1)
+                out[oy * outW + ox] = image.argb[sy * image.width + sx]
+            }
+        }
+        return ImagePixels(outW, outH, out)
+    }
+
+    /**
+     * The final draw: [ImagePixels.sampleBilinear], as the SDK resizes cells, rounded to the
+     * nearest level.
+     */
+    private fun resize(image: ImagePixels, width: Int, height: Int): ImagePixels {
+        if (image.width == width && image.height == height) return image
+
+        val out = IntArray(width * height)
+        var i = 0
+        image.sampleBilinear(image.fullRegion, width, height) { r, g, b ->
+            out[i++] = (0xFF shl 24) or (level(r) shl 16) or (level(g) shl 8) or level(b)
+        }
+        return ImagePixels(width, height, out)
+    }
+
+    private fun level(value: Float): Int = (value + 0.5f).toInt().coerceIn(0, 255)
+
+    private fun isJpeg(file: File): Boolean =
+        DataInputStream(file.inputStream().buffered()).use { it.readUnsignedShort() == 0xFFD8 }
+
+    /**
+     * Applies EXIF [orientation] (1-8), as ImageDecoder does on a device.
+     */
+    internal fun orient(image: ImagePixels, orientation: Int): ImagePixels {
+        if (orientation !in 2..8) return image
+
+        val w = image.width
+        val h = image.height
+        val swap = orientation >= 5
+        val outW = if (swap) h else w
+        val outH = if (swap) w else h
+        val out = IntArray(outW * outH)
+        for (y in 0 until outH) {
+            for (x in 0 until outW) {
+                val (sx, sy) = when (orientation) {
+                    2 -> Pair(w - 1 - x, y)
+                    3 -> Pair(w - 1 - x, h - 1 - y)
+                    4 -> Pair(x, h - 1 - y)
+                    5 -> Pair(y, x)
+                    6 -> Pair(y, h - 1 - x)
+                    7 -> Pair(w - 1 - y, h - 1 - x)
+                    else -> Pair(w - 1 - y, x)
+                }
+                out[y * outW + x] = image.argb[sy * w + sx]
+            }
+        }
+        return ImagePixels(outW, outH, out)
+    }
+
+    /**
+     * Orientation tag from a JPEG's EXIF block; 1 (as stored) for anything else.
+     */
+    internal fun readOrientation(file: File): Int {
+        try {
+            DataInputStream(file.inputStream().buffered()).use { input ->
+                if (input.readUnsignedShort() != 0xFFD8) return 1
+
+                while (true) {
+                    val marker = input.readUnsignedShort()
+                    // Start of scan or not a marker: no EXIF before the image data
+                    if (marker == 0xFFDA || marker and 0xFF00 != 0xFF00) return 1
+                    val length = input.readUnsignedShort() - 2
+                    val segment = ByteArray(length)
+                    input.readFully(segment)
+                    if (marker == 0xFFE1 && length > 14 && String(segment, 0, 4, Charsets.US_ASCII) == "Exif") {
+                        return orientationFromTiff(segment, 6)
+                    }
+                }
+            }
+        } catch (e: EOFException) {
+            return 1
+        }
+    }
+
+    private fun orientationFromTiff(data: ByteArray, start: Int): Int {
+        val little = data[start] == 'I'.code.toByte()
+        fun u16(at: Int): Int {
+            val a = data[start + at].toInt() and 0xFF
+            val b = data[start + at + 1].toInt() and 0xFF
+            return if (little) a or (b shl 8) else (a shl 8) or b
+        }
+        fun u32(at: Int): Int = if (little) u16(at) or (u16(at + 2) shl 16) else (u16(at) shl 16) or u16(at + 2)
+
+        val ifd = u32(4)
+        if (ifd < 8 || start + ifd + 2 > data.size) return 1
+        val entries = u16(ifd)
+        for (i in 0 until entries) {
+            val entry = ifd + 2 + i * 12
+            if (start + entry + 12 > data.size) return 1
+            if (u16(entry) == TAG_ORIENTATION) return u16(entry + 8)
+        }
+        return 1
+    }
+}